@@ -0,0 +1,177 @@
+package luceneindexer;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+/**
+ * The citation graph in compressed sparse row (CSR) form.
+ *
+ * Papers are numbered densely (0..nodeCount-1) in order of first appearance; ids[node] is the paper id and
+ * nodeOf maps it back.  The papers cited by node n are targets[offsets[n] .. offsets[n + 1]), in file order.
+ * Three primitive arrays and one primitive map hold the whole graph: there are no boxed ids and no per-node objects.
+ */
+public class CitationGraph {
+	private final LongIntHashMap nodeOf;
+	private final long[] ids;
+	private final int[] offsets;
+	private final int[] targets;
+
+	private CitationGraph(LongIntHashMap nodeOf, long[] ids, int[] offsets, int[] targets)
+	{
+		this.nodeOf = nodeOf;
+		this.ids = ids;
+		this.offsets = offsets;
+		this.targets = targets;
+	}
+
+	/**
+	 * Loads an edge list of "citing\tcited" lines (decimal paper ids).
+	 *
+	 * The file is read twice: once to number the papers and count the citations of each, once to fill the
+	 * adjacency array in place.  Nothing but the final arrays (and one growable array of counts) is ever held, so
+	 * memory stays bounded by the size of the graph rather than the size of the file.
+	 */
+	public static CitationGraph load(Path edgeFile) throws IOException
+	{
+		LongIntHashMap nodeOf = new LongIntHashMap(1 << 16);
+		long[] ids = new long[1 << 16];
+		int[] degrees = new int[1 << 16];
+		int nodes = 0;
+		long edges = 0;
+
+		try (TsvReader lines = TsvReader.open(edgeFile, '\t')) {
+			while (lines.next())
+			{
+				long citing = lines.decimal(0);
+				long cited = lines.decimal(1);
+
+				int from = nodeOf.putIfAbsent(citing, nodes);
+				if (from == nodes)
+				{
+					if (nodes == ids.length)
+					{
+						ids = Arrays.copyOf(ids, nodes * 2);
+						degrees = Arrays.copyOf(degrees, nodes * 2);
+					}
+					ids[nodes++] = citing;
+				}
+				int to = nodeOf.putIfAbsent(cited, nodes);
+				if (to == nodes)
+				{
+					if (nodes == ids.length)
+					{
+						ids = Arrays.copyOf(ids, nodes * 2);
+						degrees = Arrays.copyOf(degrees, nodes * 2);
+					}
+					ids[nodes++] = cited;
+				}
+				degrees[from]++;
+				edges++;
+			}
+		}
+		if (edges > Integer.MAX_VALUE)
+		{
+			throw new IOException("Too many citations for an int-indexed graph: " + edges);
+		}
+
+		//Prefix sums of the degrees give each node's slice of the adjacency array; degrees becomes the fill cursor
+		int[] offsets = new int[nodes + 1];
+		for (int n = 0; n < nodes; n++)
+		{
+			offsets[n + 1] = offsets[n] + degrees[n];
+			degrees[n] = offsets[n];
+		}
+		int[] targets = new int[(int) edges];
+
+		try (TsvReader lines = TsvReader.open(edgeFile, '\t')) {
+			while (lines.next())
+			{
+				int from = nodeOf.get(lines.decimal(0));
+				int to = nodeOf.get(lines.decimal(1));
+				targets[degrees[from]++] = to;
+			}
+		}
+
+		return new CitationGraph(nodeOf, Arrays.copyOf(ids, nodes), offsets, targets);
+	}
+
+	public int nodeCount()
+	{
+		return ids.length;
+	}
+
+	public int edgeCount()
+	{
+		return targets.length;
+	}
+
+	/**
+	 * @return the node of a paper id, or -1 if the paper is not in the graph
+	 */
+	public int node(long paperId)
+	{
+		return nodeOf.get(paperId);
+	}
+
+	public long paperId(int node)
+	{
+		return ids[node];
+	}
+
+	public int outDegree(int node)
+	{
+		return offsets[node + 1] - offsets[node];
+	}
+
+	/** Start of the node's citations in the adjacency array (see {@link #target(int)}) */
+	public int citationsStart(int node)
+	{
+		return offsets[node];
+	}
+
+	/** End (exclusive) of the node's citations in the adjacency array */
+	public int citationsEnd(int node)
+	{
+		return offsets[node + 1];
+	}
+
+	/** The cited node at a position of the adjacency array */
+	public int target(int position)
+	{
+		return targets[position];
+	}
+
+	/**
+	 * Returns the graph with every edge reversed (node n then lists the papers citing it), sharing the node numbering
+	 * of this graph.  Built with a counting sort over the adjacency array, so citing nodes stay in ascending order.
+	 */
+	public CitationGraph reverse()
+	{
+		int nodes = ids.length;
+		int[] reverseOffsets = new int[nodes + 1];
+		for (int i = 0; i < targets.length; i++)
+		{
+			reverseOffsets[targets[i] + 1]++;
+		}
+		for (int n = 0; n < nodes; n++)
+		{
+			reverseOffsets[n + 1] += reverseOffsets[n];
+		}
+		int[] cursor = Arrays.copyOf(reverseOffsets, nodes);
+		int[] sources = new int[targets.length];
+		for (int n = 0; n < nodes; n++)
+		{
+			for (int i = offsets[n]; i < offsets[n + 1]; i++)
+			{
+				sources[cursor[targets[i]]++] = n;
+			}
+		}
+		return new CitationGraph(nodeOf, ids, reverseOffsets, sources);
+	}
+
+	public long ramBytesUsed()
+	{
+		return nodeOf.ramBytesUsed() + 8L * ids.length + 4L * offsets.length + 4L * targets.length;
+	}
+}
@@ -0,0 +1,413 @@
+package luceneindexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexableField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.search.TopDocs;
+
+/**
+ * Applies a change list to an existing index, so that the cost of an update follows the size of the change rather
+ * than the size of the corpus.  Documents are identified by their "paperID" key term (the decimal paper id).
+ *
+ * A change list is a tab separated file with one change per line:
+ *
+ *   upsert &lt;TAB&gt; data set (ICSE, SIGMOD or VLDB) &lt;TAB&gt; the paper's line from the *_id.txt metadata file
+ *   delete &lt;TAB&gt; paper id (hex)
+ *   rank   &lt;TAB&gt; paper id (hex) &lt;TAB&gt; pageRankComponent &lt;TAB&gt; pageRank
+ *
+ * An upsert replaces the whole document (updateDocument), using the current citation graph, ranks and clusters.
+ * The index is sorted by rank (see LuceneIndexer.indexConfig), and the doc values of a sort field cannot be updated in
+ * place, so a rank change rebuilds the document too: from its stored fields, the new rank and the current citation
+ * graph and clusters.  It is replaced like an upsert, which also moves it to its new place in the order, and costs
+ * about as much (the title is analyzed again).
+ *
+ * {@link #diff} writes the change list between two versions of the input files.
+ */
+public class IndexUpdater {
+	private final IndexWriter writer;
+	private final int batchSize;
+	private int pending;
+	//Stored fields of the papers whose rank changes, opened from the writer when first needed
+	private DirectoryReader reader;
+	private IndexSearcher searcher;
+	private LongIntHashMap rewritten = new LongIntHashMap(); //Papers upserted or deleted since the reader was opened
+
+	long upserts;
+	long deletes;
+	long rankUpdates;
+
+	public IndexUpdater(IndexWriter writer, int batchSize)
+	{
+		this.writer = writer;
+		this.batchSize = batchSize;
+	}
+
+	static Term key(long paperID)
+	{
+		return new Term("paperID", Long.toString(paperID));
+	}
+
+	/**
+	 * Applies every change of the list, committing after each batch and at the end.
+	 */
+	public void apply(Path changeList) throws IOException
+	{
+		try (TsvReader changes = TsvReader.open(changeList, '\t')) {
+			while (changes.next())
+			{
+				String op = changes.string(0);
+				if (op.equals("upsert"))
+				{
+					long paperID = changes.hex(2 + LuceneIndexer.PAPER_ID);
+					Document doc = LuceneIndexer.buildDocument(changes, 2, changes.string(1));
+					writer.updateDocument(key(paperID), doc);
+					rewritten.put(paperID, 1);
+					upserts++;
+				}
+				else if (op.equals("delete"))
+				{
+					long paperID = changes.hex(1);
+					writer.deleteDocuments(key(paperID));
+					rewritten.put(paperID, 1);
+					deletes++;
+				}
+				else if (op.equals("rank"))
+				{
+					long paperID = changes.hex(1);
+					Document stored = storedDocument(paperID);
+					if (stored != null) //A change to a paper that is not indexed does nothing
+					{
+						writer.updateDocument(key(paperID), rebuild(stored, paperID, changes.decimal(3), changes.number(2)));
+					}
+					rankUpdates++;
+				}
+				else
+				{
+					throw new IOException("Unknown change '" + op + "' in " + changeList);
+				}
+				if (++pending >= batchSize)
+				{
+					writer.commit();
+					pending = 0;
+				}
+			}
+		}
+		writer.commit();
+		pending = 0;
+		if (reader != null)
+		{
+			reader.close();
+			reader = null;
+			searcher = null;
+		}
+	}
+	
+	/**
+	 * @return the stored fields of a paper's document, or null if it is not in the index
+	 */
+	private Document storedDocument(long paperID) throws IOException
+	{
+		//Opening a reader flushes the writer, so one reader serves all rank changes, and it is only reopened to see a
+		//paper that was upserted or deleted after it was opened (the diff never does both, but a change list may)
+		if (reader == null || rewritten.containsKey(paperID))
+		{
+			DirectoryReader reopened = (reader == null) ? DirectoryReader.open(writer) : DirectoryReader.openIfChanged(reader, writer);
+			if (reopened != null)
+			{
+				if (reader != null)
+				{
+					reader.close();
+				}
+				reader = reopened;
+				searcher = new IndexSearcher(reader);
+			}
+			rewritten = new LongIntHashMap();
+		}
+		TopDocs hits = searcher.search(new TermQuery(key(paperID)), 1);
+		return (hits.totalHits == 0) ? null : searcher.doc(hits.scoreDocs[0].doc);
+	}
+	
+	/**
+	 * The document of a paper with a new rank, built from the stored fields of its current one.
+	 */
+	private static Document rebuild(Document stored, long paperID, long pageRank, double PRcomponent)
+	{
+		IndexableField year = stored.getField("year");
+		return LuceneIndexer.buildDocument(paperID, stored.get("title"),
+				(year == null) ? LuceneIndexer.NO_YEAR : year.numericValue().intValue(), stored.get("doi"),
+				stored.get("conference"), pageRank, PRcomponent, stored.get("predicted"));
+	}
+
+	/**
+	 * Compares the input files under oldDocsPath with those under newDocsPath and writes the changes between them:
+	 * - papers that disappeared from the metadata files are deleted,
+	 * - papers whose metadata line, data set, cluster or citations changed, or that gained or lost a rank, are upserted,
+	 * - papers whose rank changed (and are not upserted anyway) get a rank change.
+	 *
+	 * Lines are compared by hash, so only the ids and one hash per line of the old files are held in memory.
+	 *
+	 * @return the number of changes written
+	 */
+	public static long diff(String oldDocsPath, String newDocsPath, Path changeList) throws IOException
+	{
+		//Papers that need a new document even if their metadata line is unchanged
+		LongIntHashMap changed = new LongIntHashMap();
+
+		CitationGraph oldGraph = CitationGraph.load(LuceneIndexer.subgraphFile(oldDocsPath));
+		CitationGraph newGraph = CitationGraph.load(LuceneIndexer.subgraphFile(newDocsPath));
+		diffCitations(oldGraph, newGraph, changed);
+		diffCitations(newGraph, oldGraph, changed);
+
+		Path oldClustersFile = LuceneIndexer.clustersFile(oldDocsPath);
+		LongIntHashMap oldClusters = new LongIntHashMap();
+		long[] oldClusterHashes = readKeyed(oldClustersFile, oldClusters);
+		boolean[] clusterSeen = new boolean[oldClusterHashes.length];
+		try (TsvReader clusterLines = TsvReader.open(LuceneIndexer.clustersFile(newDocsPath), '\t')) {
+			while (clusterLines.next())
+			{
+				long paperID = clusterLines.hex(0);
+				int old = oldClusters.get(paperID);
+				if (old == LongIntHashMap.MISSING || oldClusterHashes[old] != hash(clusterLines))
+				{
+					changed.put(paperID, 1);
+				}
+				else
+				{
+					clusterSeen[old] = true;
+				}
+			}
+		}
+		markUnseen(oldClustersFile, oldClusters, clusterSeen, changed);
+
+		//Ranks ("component paperID", decimal): both the value and the position, which is the pageRank, count
+		Path oldRanksFile = LuceneIndexer.ranksFile(oldDocsPath);
+		LongIntHashMap oldRanks = new LongIntHashMap();
+		long[] oldRankHashes = new long[1 << 10];
+		try (TsvReader rankLines = TsvReader.open(oldRanksFile, ' ')) {
+			for (int position = 0; rankLines.next(); position++)
+			{
+				if (position == oldRankHashes.length)
+				{
+					oldRankHashes = Arrays.copyOf(oldRankHashes, 2 * position);
+				}
+				oldRanks.put(rankLines.decimal(1), position);
+				oldRankHashes[position] = Double.doubleToLongBits(rankLines.number(0)) * 31 + position;
+			}
+		}
+		boolean[] rankSeen = new boolean[oldRankHashes.length];
+		List<String> rankChanges = new ArrayList<String>();
+		LongIntHashMap rankChanged = new LongIntHashMap(); //Paper id to its entry in rankChanges
+		try (TsvReader rankLines = TsvReader.open(LuceneIndexer.ranksFile(newDocsPath), ' ')) {
+			for (int position = 0; rankLines.next(); position++)
+			{
+				long paperID = rankLines.decimal(1);
+				double rankComponent = rankLines.number(0);
+				int old = oldRanks.get(paperID);
+				if (old == LongIntHashMap.MISSING)
+				{
+					changed.put(paperID, 1); //A new pageRank field, not just a new value
+					continue;
+				}
+				rankSeen[old] = true;
+				if (oldRankHashes[old] != Double.doubleToLongBits(rankComponent) * 31 + position)
+				{
+					rankChanged.put(paperID, rankChanges.size());
+					rankChanges.add(Long.toHexString(paperID).toUpperCase() + "\t" + rankComponent + "\t" + (position + 1));
+				}
+			}
+		}
+		try (TsvReader rankLines = TsvReader.open(oldRanksFile, ' ')) {
+			for (int position = 0; rankLines.next(); position++)
+			{
+				if (!rankSeen[position])
+				{
+					changed.put(rankLines.decimal(1), 1); //The pageRank fields go away
+				}
+			}
+		}
+
+		//Metadata: one hash per paper over all three files; the data set is part of the document, so it is hashed too
+		LongIntHashMap oldPapers = new LongIntHashMap();
+		long[] oldPaperHashes = new long[0];
+		for (int f = 0; f < LuceneIndexer.METADATA_FILES.length; f++)
+		{
+			LongIntHashMap papers = new LongIntHashMap();
+			long[] hashes = readKeyed(LuceneIndexer.metadataFile(oldDocsPath, f), papers);
+			int base = oldPaperHashes.length;
+			oldPaperHashes = Arrays.copyOf(oldPaperHashes, base + hashes.length);
+			for (int i = 0; i < hashes.length; i++)
+			{
+				oldPaperHashes[base + i] = hashes[i] * 31 + LuceneIndexer.DATA_SETS[f].hashCode();
+			}
+			try (TsvReader metadataLines = TsvReader.open(LuceneIndexer.metadataFile(oldDocsPath, f), '\t')) {
+				while (metadataLines.next())
+				{
+					long paperID = metadataLines.hex(LuceneIndexer.PAPER_ID);
+					oldPapers.put(paperID, base + papers.get(paperID));
+				}
+			}
+		}
+		boolean[] paperSeen = new boolean[oldPaperHashes.length];
+		for (int f = 0; f < LuceneIndexer.METADATA_FILES.length; f++)
+		{
+			try (TsvReader metadataLines = TsvReader.open(LuceneIndexer.metadataFile(newDocsPath, f), '\t')) {
+				while (metadataLines.next())
+				{
+					int old = oldPapers.get(metadataLines.hex(LuceneIndexer.PAPER_ID));
+					if (old != LongIntHashMap.MISSING)
+					{
+						paperSeen[old] = true;
+					}
+				}
+			}
+		}
+
+		long changes = 0;
+		try (BufferedWriter out = Files.newBufferedWriter(changeList, StandardCharsets.UTF_8)) {
+			//Deletes first, so that a paper moving to another data set is not deleted after it is added again
+			LongIntHashMap deleted = new LongIntHashMap();
+			for (int f = 0; f < LuceneIndexer.METADATA_FILES.length; f++)
+			{
+				try (TsvReader metadataLines = TsvReader.open(LuceneIndexer.metadataFile(oldDocsPath, f), '\t')) {
+					while (metadataLines.next())
+					{
+						long paperID = metadataLines.hex(LuceneIndexer.PAPER_ID);
+						if (!paperSeen[oldPapers.get(paperID)] && deleted.put(paperID, 1) == LongIntHashMap.MISSING)
+						{
+							out.write("delete\t" + metadataLines.string(LuceneIndexer.PAPER_ID) + "\n");
+							changes++;
+						}
+					}
+				}
+			}
+
+			LongIntHashMap upserted = new LongIntHashMap();
+			for (int f = 0; f < LuceneIndexer.METADATA_FILES.length; f++)
+			{
+				try (TsvReader metadataLines = TsvReader.open(LuceneIndexer.metadataFile(newDocsPath, f), '\t')) {
+					while (metadataLines.next())
+					{
+						long paperID = metadataLines.hex(LuceneIndexer.PAPER_ID);
+						int old = oldPapers.get(paperID);
+						if (old == LongIntHashMap.MISSING || changed.containsKey(paperID)
+								|| oldPaperHashes[old] != hash(metadataLines) * 31 + LuceneIndexer.DATA_SETS[f].hashCode())
+						{
+							out.write("upsert\t" + LuceneIndexer.DATA_SETS[f] + "\t" + metadataLines.line() + "\n");
+							upserted.put(paperID, 1);
+							changes++;
+						}
+					}
+				}
+			}
+
+			//Rank changes only for papers that are in the index and keep their document
+			for (int f = 0; f < LuceneIndexer.METADATA_FILES.length; f++)
+			{
+				try (TsvReader metadataLines = TsvReader.open(LuceneIndexer.metadataFile(newDocsPath, f), '\t')) {
+					while (metadataLines.next())
+					{
+						long paperID = metadataLines.hex(LuceneIndexer.PAPER_ID);
+						int change = rankChanged.get(paperID);
+						if (change != LongIntHashMap.MISSING && !upserted.containsKey(paperID))
+						{
+							out.write("rank\t" + rankChanges.get(change) + "\n");
+							upserted.put(paperID, 1); //Each paper once
+							changes++;
+						}
+					}
+				}
+			}
+		}
+		return changes;
+	}
+
+	/**
+	 * Marks every paper of graph a whose citations are not the same (in the same order) in graph b.
+	 */
+	private static void diffCitations(CitationGraph a, CitationGraph b, LongIntHashMap changed)
+	{
+		for (int n = 0; n < a.nodeCount(); n++)
+		{
+			long paperID = a.paperId(n);
+			int m = b.node(paperID);
+			boolean same = (m >= 0) ? a.outDegree(n) == b.outDegree(m) : a.outDegree(n) == 0;
+			for (int i = 0; same && i < a.outDegree(n); i++)
+			{
+				same = a.paperId(a.target(a.citationsStart(n) + i)) == b.paperId(b.target(b.citationsStart(m) + i));
+			}
+			if (!same)
+			{
+				changed.put(paperID, 1);
+			}
+		}
+	}
+
+	/**
+	 * Reads a tab separated file keyed by a hex id in its first column, mapping each id to its line number.
+	 *
+	 * @return the hash of each line
+	 */
+	private static long[] readKeyed(Path file, LongIntHashMap index) throws IOException
+	{
+		long[] hashes = new long[1 << 10];
+		int lines = 0;
+		try (TsvReader keyed = TsvReader.open(file, '\t')) {
+			while (keyed.next())
+			{
+				if (lines == hashes.length)
+				{
+					hashes = Arrays.copyOf(hashes, 2 * lines);
+				}
+				index.put(keyed.hex(0), lines);
+				hashes[lines++] = hash(keyed);
+			}
+		}
+		return Arrays.copyOf(hashes, lines);
+	}
+
+	/**
+	 * Marks the ids of a file read by {@link #readKeyed} whose lines were not seen.
+	 */
+	private static void markUnseen(Path file, LongIntHashMap index, boolean[] seen, LongIntHashMap marked) throws IOException
+	{
+		try (TsvReader keyed = TsvReader.open(file, '\t')) {
+			while (keyed.next())
+			{
+				long paperID = keyed.hex(0);
+				if (!seen[index.get(paperID)])
+				{
+					marked.put(paperID, 1);
+				}
+			}
+		}
+	}
+
+	/**
+	 * 64-bit FNV-1a hash of the bytes of the current line.
+	 */
+	private static long hash(TsvReader line)
+	{
+		ByteBuffer bytes = line.bytes();
+		long h = 0xcbf29ce484222325L;
+		for (int i = line.start(0); i < line.end(line.fieldCount() - 1); i++)
+		{
+			h ^= bytes.get(i) & 0xFF;
+			h *= 0x100000001b3L;
+		}
+		return h;
+	}
+}
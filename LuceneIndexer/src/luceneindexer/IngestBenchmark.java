@@ -0,0 +1,220 @@
+package luceneindexer;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Compares parsing the input files the way LuceneIndexer used to (BufferedReader, readLine, indexOf, substring,
+ * Long.parseLong / Double.parseDouble) against TsvReader, on one thread and on chunks in parallel.
+ *
+ * Usage: IngestBenchmark [docsPath] [threads] [rounds]
+ *
+ * Every variant computes the same checksum over the parsed values, which is printed so the work cannot be skipped.
+ */
+public class IngestBenchmark {
+	private interface Parser {
+		long parse(Path file) throws Exception;
+	}
+
+	public static void main(String[] args) throws Exception
+	{
+		String docsPath = (args.length > 0) ? args[0] : "sigmod_vldb_icse/";
+		final int threads = (args.length > 1) ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+		int rounds = (args.length > 2) ? Integer.parseInt(args[2]) : 10;
+
+		final ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			//Edges: two decimal ids
+			run("sigmod_vldb_icse_subgraph.txt", Paths.get(docsPath, "sigmod_vldb_icse_subgraph.txt"), rounds, new Parser() {
+				public long parse(Path file) throws IOException {
+					long sum = 0;
+					try (BufferedReader lines = new BufferedReader(new InputStreamReader(Files.newInputStream(file)))) {
+						String line;
+						while ((line = lines.readLine()) != null)
+						{
+							int split = line.indexOf("\t");
+							sum += Long.parseLong(line.substring(0, split)) ^ Long.parseLong(line.substring(split + 1));
+						}
+					}
+					return sum;
+				}
+			}, new Parser() {
+				public long parse(Path file) throws IOException {
+					try (TsvReader lines = TsvReader.open(file, '\t')) {
+						return edges(lines);
+					}
+				}
+			}, new Parallel(pool, threads, '\t') {
+				long chunk(TsvReader lines) throws IOException {
+					return edges(lines);
+				}
+			});
+
+			//Ranks: a double and a decimal id
+			run("sigmod_vldb_icse.ranks", Paths.get(docsPath, "sigmod_vldb_icse.ranks"), rounds, new Parser() {
+				public long parse(Path file) throws IOException {
+					long sum = 0;
+					try (BufferedReader lines = new BufferedReader(new InputStreamReader(Files.newInputStream(file)))) {
+						String line;
+						while ((line = lines.readLine()) != null)
+						{
+							int split = line.indexOf(" ");
+							sum += Double.doubleToLongBits(Double.parseDouble(line.substring(0, split))) ^ Long.parseLong(line.substring(split + 1));
+						}
+					}
+					return sum;
+				}
+			}, new Parser() {
+				public long parse(Path file) throws IOException {
+					try (TsvReader lines = TsvReader.open(file, ' ')) {
+						return ranks(lines);
+					}
+				}
+			}, new Parallel(pool, threads, ' ') {
+				long chunk(TsvReader lines) throws IOException {
+					return ranks(lines);
+				}
+			});
+
+			//Metadata: a hex id and the title
+			run("icse_id.txt", Paths.get(docsPath, "icse_id.txt"), rounds, new Parser() {
+				public long parse(Path file) throws IOException {
+					long sum = 0;
+					try (BufferedReader lines = new BufferedReader(new InputStreamReader(Files.newInputStream(file), StandardCharsets.UTF_8))) {
+						String line;
+						while ((line = lines.readLine()) != null)
+						{
+							int t1 = line.indexOf('\t');
+							int t2 = line.indexOf('\t', t1 + 1);
+							sum += Long.parseLong(line.substring(0, t1), 16) ^ line.substring(t1 + 1, t2).hashCode();
+						}
+					}
+					return sum;
+				}
+			}, new Parser() {
+				public long parse(Path file) throws IOException {
+					try (TsvReader lines = TsvReader.open(file, '\t')) {
+						return metadata(lines);
+					}
+				}
+			}, new Parallel(pool, threads, '\t') {
+				long chunk(TsvReader lines) throws IOException {
+					return metadata(lines);
+				}
+			});
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	static long edges(TsvReader lines) throws IOException
+	{
+		long sum = 0;
+		while (lines.next())
+		{
+			sum += lines.decimal(0) ^ lines.decimal(1);
+		}
+		return sum;
+	}
+
+	static long ranks(TsvReader lines) throws IOException
+	{
+		long sum = 0;
+		while (lines.next())
+		{
+			sum += Double.doubleToLongBits(lines.number(0)) ^ lines.decimal(1);
+		}
+		return sum;
+	}
+
+	static long metadata(TsvReader lines) throws IOException
+	{
+		long sum = 0;
+		while (lines.next())
+		{
+			sum += lines.hex(LuceneIndexer.PAPER_ID) ^ lines.string(LuceneIndexer.TITLE).hashCode();
+		}
+		return sum;
+	}
+
+	/** Splits the file into chunks (several per thread) and parses them on the pool */
+	private static abstract class Parallel implements Parser {
+		private final ExecutorService pool;
+		private final int threads;
+		private final char separator;
+
+		Parallel(ExecutorService pool, int threads, char separator)
+		{
+			this.pool = pool;
+			this.threads = threads;
+			this.separator = separator;
+		}
+
+		abstract long chunk(TsvReader lines) throws IOException;
+
+		public long parse(Path file) throws Exception {
+			List<TsvReader> chunks = TsvReader.split(file, separator, 4 * threads);
+			List<Future<Long>> sums = new ArrayList<Future<Long>>();
+			for (final TsvReader lines : chunks)
+			{
+				sums.add(pool.submit(new Callable<Long>() {
+					public Long call() throws IOException {
+						try {
+							return chunk(lines);
+						} finally {
+							lines.close();
+						}
+					}
+				}));
+			}
+			long sum = 0;
+			for (Future<Long> f : sums)
+			{
+				sum += f.get();
+			}
+			return sum;
+		}
+	}
+
+	private static void run(String name, Path file, int rounds, Parser readers, Parser mapped, Parser parallel) throws Exception
+	{
+		double megabytes = Files.size(file) / (1024.0 * 1024.0);
+		System.out.println(name + String.format(" (%.1fMB)", megabytes));
+		double baseline = time("  BufferedReader  ", readers, file, rounds, megabytes);
+		double single = time("  TsvReader       ", mapped, file, rounds, megabytes);
+		double chunks = time("  TsvReader chunks", parallel, file, rounds, megabytes);
+		System.out.println(String.format("  speedup: %.1fx single threaded, %.1fx in parallel", baseline / single, baseline / chunks));
+	}
+
+	/**
+	 * @return the best time of the rounds, in seconds, after as many warmup rounds
+	 */
+	private static double time(String label, Parser parser, Path file, int rounds, double megabytes) throws Exception
+	{
+		long checksum = 0;
+		for (int i = 0; i < rounds; i++)
+		{
+			checksum += parser.parse(file);
+		}
+		double best = Double.POSITIVE_INFINITY;
+		for (int i = 0; i < rounds; i++)
+		{
+			long start = System.nanoTime();
+			checksum += parser.parse(file);
+			best = Math.min(best, (System.nanoTime() - start) / 1e9);
+		}
+		System.out.println(String.format("%s %8.2fms %8.1fMB/s  (checksum %x)", label, best * 1000, megabytes / best, checksum));
+		return best;
+	}
+}
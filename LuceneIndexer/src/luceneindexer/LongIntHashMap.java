@@ -0,0 +1,161 @@
+package luceneindexer;
+
+import java.util.Arrays;
+
+/**
+ * A map from long keys to int values, with open addressing (linear probing) over two parallel primitive arrays,
+ * so that neither keys nor values are boxed and there is no per-entry object.
+ *
+ * Not thread safe for writes; once filled it may be read from several threads at once.
+ */
+public class LongIntHashMap {
+	public static final int MISSING = -1; //Returned by get for absent keys, so values should not be negative
+
+	private static final long FREE = Long.MIN_VALUE; //Marks an empty slot; a real key with this value is kept aside
+	private static final float LOAD_FACTOR = 0.6f;
+
+	private long[] keys;
+	private int[] values;
+	private int mask;
+	private int size;
+	private boolean hasFreeKey;
+	private int freeKeyValue;
+
+	public LongIntHashMap()
+	{
+		this(16);
+	}
+
+	public LongIntHashMap(int expectedSize)
+	{
+		int capacity = Integer.highestOneBit(Math.max((int) (expectedSize / LOAD_FACTOR), 4) - 1) << 1;
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity)
+	{
+		keys = new long[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, FREE);
+		mask = capacity - 1;
+	}
+
+	private static int hash(long key)
+	{
+		//Fibonacci hashing; paper ids are clustered, so the low bits alone are a poor hash
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h ^ (h >>> 32));
+	}
+
+	public int get(long key)
+	{
+		if (key == FREE)
+		{
+			return hasFreeKey ? freeKeyValue : MISSING;
+		}
+		int slot = hash(key) & mask;
+		while (true)
+		{
+			long k = keys[slot];
+			if (k == key)
+			{
+				return values[slot];
+			}
+			if (k == FREE)
+			{
+				return MISSING;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	public boolean containsKey(long key)
+	{
+		return get(key) != MISSING;
+	}
+
+	/**
+	 * @return the previous value of the key, or MISSING
+	 */
+	public int put(long key, int value)
+	{
+		if (key == FREE)
+		{
+			int previous = hasFreeKey ? freeKeyValue : MISSING;
+			if (!hasFreeKey)
+			{
+				size++;
+			}
+			hasFreeKey = true;
+			freeKeyValue = value;
+			return previous;
+		}
+		int slot = hash(key) & mask;
+		while (true)
+		{
+			long k = keys[slot];
+			if (k == key)
+			{
+				int previous = values[slot];
+				values[slot] = value;
+				return previous;
+			}
+			if (k == FREE)
+			{
+				keys[slot] = key;
+				values[slot] = value;
+				if (++size > LOAD_FACTOR * keys.length)
+				{
+					rehash();
+				}
+				return MISSING;
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	/**
+	 * Returns the value of the key, first adding it with the given value if it is absent.
+	 */
+	public int putIfAbsent(long key, int value)
+	{
+		int existing = get(key);
+		if (existing != MISSING)
+		{
+			return existing;
+		}
+		put(key, value);
+		return value;
+	}
+
+	private void rehash()
+	{
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		allocate(oldKeys.length * 2);
+		for (int i = 0; i < oldKeys.length; i++)
+		{
+			long key = oldKeys[i];
+			if (key != FREE)
+			{
+				int slot = hash(key) & mask;
+				while (keys[slot] != FREE)
+				{
+					slot = (slot + 1) & mask;
+				}
+				keys[slot] = key;
+				values[slot] = oldValues[i];
+			}
+		}
+	}
+
+	public int size()
+	{
+		return size;
+	}
+
+	public long ramBytesUsed()
+	{
+		return 12L * keys.length;
+	}
+}
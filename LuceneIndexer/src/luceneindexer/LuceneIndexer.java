@@ -7,172 +7,675 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.nio.file.SimpleFileVisitor;
 import java.nio.file.attribute.BasicFileAttributes;
-import java.util.Hashtable;
-import java.util.Vector;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
 import org.apache.lucene.index.IndexWriter;
 import org.apache.lucene.index.IndexWriterConfig.OpenMode;
 import org.apache.lucene.index.IndexWriterConfig;
 import org.apache.lucene.index.Term;
+import org.apache.lucene.index.TieredMergePolicy;
 import org.apache.lucene.store.Directory;
 import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+import paperfinder.MultinomialNaiveBayesClassifier;
+import paperfinder.RankSort;
+import paperfinder.TitleSuggester;
 
 /**
 * Index all text files under a directory.
 */
 public class LuceneIndexer {
 	static int counter = 0;
-	static Hashtable<Long, Vector<Long>> graph = new Hashtable<Long, Vector<Long>>();
-	static Hashtable<Long, Double> pageRanksComponent = new Hashtable<Long, Double>();
-	static Hashtable<Long, Long> pageRanks = new Hashtable<Long, Long>();
-	static Hashtable<Long, String> clusters = new Hashtable<Long, String>();
+	static CitationGraph graph;
+	//The ranks file is sorted by PageRank: the paper on line i (from 0) has pageRank i + 1 and value pageRanksComponent[i]
+	static LongIntHashMap pageRanks = new LongIntHashMap();
+	static double[] pageRanksComponent = new double[0];
+	static LongIntHashMap clusters = new LongIntHashMap(); //Paper id to index in clusterNames
+	static List<String> clusterNames = new ArrayList<String>();
+	static MultinomialNaiveBayesClassifier classifier = null; //Optional: when set, predictions are stored in the index
+	static int threads = 1; //Worker threads building documents; 1 indexes sequentially, in file order
+	static double ramBufferMB = 256; //Only used when indexing in parallel
+	static boolean perThreadIndexes = false;
+	
+	//PageRank computed from the citation graph instead of read from the .ranks file (-pagerank)
+	static boolean computePageRank = false;
+	static double damping = 0.85;
+	static double tolerance = 1e-10;
+	static int maxIterations = 200;
+	static PageRank.Dangling dangling = PageRank.Dangling.UNIFORM;
+	static Path ranksOutput = null;
+	
+	//Columns of the *_id.txt metadata files, which follow the Papers.txt layout of the Microsoft Academic Graph
+	static final int PAPER_ID = 0;
+	static final int TITLE = 1;
+	static final int NORMALIZED_TITLE = 2;
+	static final int YEAR = 3;
+	static final int DATE = 4;
+	static final int DOI = 5;
+	static final int VENUE = 6;
+	static final int NORMALIZED_VENUE = 7;
+	static final int JOURNAL_ID = 8;
+	static final int CONFERENCE_SERIES_ID = 9;
+	static final int PAPER_RANK = 10;
+	static final int NO_YEAR = Integer.MIN_VALUE; //Year of papers whose metadata line has none
+	
+	static final String[] METADATA_FILES = { "icse_id.txt", "sigmod_id.txt", "vldb_id.txt" };
+	static final String[] DATA_SETS = { "ICSE", "SIGMOD", "VLDB" };
+
+	/**
+	 * Builds the index from the input files, or updates it; see usage() for the options.  An unknown or incomplete
+	 * option prints the usage and exits with status 1 rather than running a full rebuild.
+	 */
 
 	public static void main(String[] args) throws Exception {
 		String indexPath = "sigmod_vldb_icse_index";
 		String docsPath = "sigmod_vldb_icse/";
+		Path changeList = null;
+		int batchSize = 1000;
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-docs") && i + 1 < args.length)
+			{
+				docsPath = args[++i];
+				if (!docsPath.endsWith("/"))
+				{
+					docsPath += "/";
+				}
+			}
+			else if (args[i].equals("-index") && i + 1 < args.length)
+			{
+				indexPath = args[++i];
+			}
+			else if (args[i].equals("-classifier") && i + 1 < args.length)
+			{
+				classifier = new MultinomialNaiveBayesClassifier(Paths.get(args[++i]));
+			}
+			else if (args[i].equals("-threads") && i + 1 < args.length)
+			{
+				threads = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-ramBufferMB") && i + 1 < args.length)
+			{
+				ramBufferMB = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("-perThreadIndexes"))
+			{
+				perThreadIndexes = true;
+			}
+			else if (args[i].equals("-pagerank"))
+			{
+				computePageRank = true;
+			}
+			else if (args[i].equals("-damping") && i + 1 < args.length)
+			{
+				damping = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("-tolerance") && i + 1 < args.length)
+			{
+				tolerance = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("-maxIterations") && i + 1 < args.length)
+			{
+				maxIterations = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-dangling") && i + 1 < args.length)
+			{
+				dangling = PageRank.Dangling.valueOf(args[++i].toUpperCase());
+			}
+			else if (args[i].equals("-writeRanks") && i + 1 < args.length)
+			{
+				ranksOutput = Paths.get(args[++i]);
+			}
+			else if (args[i].equals("-update") && i + 1 < args.length)
+			{
+				changeList = Paths.get(args[++i]);
+			}
+			else if (args[i].equals("-batch") && i + 1 < args.length)
+			{
+				batchSize = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-diff") && i + 2 < args.length)
+			{
+				String oldDocsPath = args[++i];
+				Path output = Paths.get(args[++i]);
+				long changes = IndexUpdater.diff(oldDocsPath, docsPath, output);
+				System.out.println("Wrote " + changes + " changes to '" + output + "'");
+				return;
+			}
+			else
+			{
+				System.out.println("Unknown or incomplete option: " + args[i]);
+				usage();
+				System.exit(1);
+			}
+		}
 		System.out.println("Indexing to directory '" + indexPath + "'...");
 		Directory dir = FSDirectory.open(Paths.get(indexPath));
 		Analyzer analyzer = new StandardAnalyzer();
-		IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
-		IndexWriter writer = new IndexWriter(dir, iwc);
+		long start = System.nanoTime();
+		long count = 0;
 		
-		loadSubgraph(Paths.get(docsPath + "sigmod_vldb_icse_subgraph.txt"));
-		loadPageRanks(Paths.get(docsPath + "sigmod_vldb_icse.ranks"));
-		loadClusters(Paths.get(docsPath + "clusters.txt"));
-		indexMetadata(writer, Paths.get(docsPath + "icse_id.txt"), "ICSE");
-		indexMetadata(writer, Paths.get(docsPath + "sigmod_id.txt"), "SIGMOD");
-		indexMetadata(writer, Paths.get(docsPath + "vldb_id.txt"), "VLDB");
-		
-		writer.close();
-	}
-	
-	static void loadSubgraph(Path graphFile) throws IOException
-	{
-		BufferedReader graphLines = new BufferedReader(new InputStreamReader(Files.newInputStream(graphFile)));
+		if (changeList != null)
+		{
+			IndexWriterConfig iwc = indexConfig(analyzer);
+			iwc.setOpenMode(OpenMode.APPEND);
+			IndexWriter writer = new IndexWriter(dir, iwc);
+			
+			//Upserted documents are built from the current graph, ranks and clusters
+			loadLookupTables(docsPath);
+			IndexUpdater updater = new IndexUpdater(writer, batchSize);
+			updater.apply(changeList);
+			writer.close();
+			buildSuggester(dir, indexPath);
+			
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println("Applied " + updater.upserts + " upserts, " + updater.deletes + " deletes and "
+					+ updater.rankUpdates + " rank updates in " + String.format("%.2f", seconds) + "s");
+			return;
+		}
 		
-		String line;
-		while ((line = graphLines.readLine()) != null)
-		{
-			int split = line.indexOf("\t");
-			String paper1 = line.substring(0, split);
-			String paper2 = line.substring(split + 1);
-			Long paper1id = Long.parseLong(paper1);
-			Long paper2id = Long.parseLong(paper2);
+		if (threads <= 1)
+		{
+			IndexWriterConfig iwc = indexConfig(analyzer);
+			iwc.setOpenMode(OpenMode.CREATE); //A full build; -update changes an existing index
+			IndexWriter writer = new IndexWriter(dir, iwc);
 			
-			try
+			loadLookupTables(docsPath);
+			for (int f = 0; f < METADATA_FILES.length; f++)
 			{
-				Vector<Long> citations = graph.get(paper1id);
-				citations.add(paper2id);
+				count += indexMetadata(writer, metadataFile(docsPath, f), DATA_SETS[f]);
 			}
-			catch (NullPointerException e)
+			
+			sortSegments(writer);
+			writer.close();
+		}
+		else
+		{
+			System.out.println("Indexing with " + threads + " threads" + (perThreadIndexes ? ", one index per thread" : ""));
+			IndexWriterConfig iwc = bulkConfig(analyzer);
+			iwc.setOpenMode(OpenMode.CREATE);
+			IndexWriter writer = new IndexWriter(dir, iwc);
+			
+			//The lookup tables are independent of each other, so they are loaded concurrently as well
+			final String docs = docsPath;
+			ExecutorService loaders = Executors.newFixedThreadPool(3);
+			List<Future<?>> loaded = new ArrayList<Future<?>>();
+			loaded.add(loaders.submit(new Callable<Void>() {
+				public Void call() throws Exception {
+					loadSubgraph(subgraphFile(docs));
+					if (computePageRank)
+					{
+						computePageRanks();
+					}
+					return null;
+				}
+			}));
+			if (!computePageRank)
 			{
-				Vector<Long> citation = new Vector<Long>();
-				citation.add(paper2id);
-				graph.put(paper1id, citation);
+				loaded.add(loaders.submit(new Callable<Void>() {
+					public Void call() throws IOException {
+						loadPageRanks(ranksFile(docs));
+						return null;
+					}
+				}));
 			}
-
+			loaded.add(loaders.submit(new Callable<Void>() {
+				public Void call() throws IOException {
+					loadClusters(clustersFile(docs));
+					return null;
+				}
+			}));
+			for (Future<?> f : loaded)
+			{
+				f.get();
+			}
+			loaders.shutdown();
+			System.out.println("Loaded graph, ranks and clusters in " + (System.nanoTime() - start) / 1000000 + "ms");
+			
+			Path[] metadataFiles = new Path[METADATA_FILES.length];
+			for (int f = 0; f < METADATA_FILES.length; f++)
+			{
+				metadataFiles[f] = metadataFile(docsPath, f);
+			}
+			count = indexMetadataParallel(writer, analyzer, Paths.get(indexPath), metadataFiles, DATA_SETS);
+			
+			sortSegments(writer);
+			writer.close();
 		}
 		
+		buildSuggester(dir, indexPath);
+		
+		double seconds = (System.nanoTime() - start) / 1e9;
+		System.out.println("Indexed " + count + " documents in " + String.format("%.2f", seconds) + "s ("
+				+ String.format("%.0f", count / seconds) + " docs/sec)");
 	}
 	
-	static void loadPageRanks(Path ranksFile) throws IOException
+	private static void usage() {
+		System.out.println("Usage: LuceneIndexer [options]");
+		System.out.println("  -docs <path>            directory of the input files (default sigmod_vldb_icse/)");
+		System.out.println("  -index <path>           index directory to write (default sigmod_vldb_icse_index)");
+		System.out.println("  -classifier <path>      classifier model (classifier.dat or classifier.bin) used to store a \"predicted\" field on each document");
+		System.out.println("  -threads <n>            index in parallel: the input files are read concurrently and documents are built and added by n workers");
+		System.out.println("  -ramBufferMB <mb>       RAM buffer of the IndexWriter in parallel mode (default 256)");
+		System.out.println("  -perThreadIndexes       in parallel mode, each worker writes its own index and they are merged with addIndexes at the end");
+		System.out.println("  -pagerank               compute PageRank from the citation graph (on all cores) instead of reading sigmod_vldb_icse.ranks");
+		System.out.println("  -damping <d>            PageRank damping factor (default 0.85)");
+		System.out.println("  -tolerance <t>          stop iterating when ranks change by less than t in total (L1 norm, default 1e-10)");
+		System.out.println("  -maxIterations <n>      stop iterating after n iterations regardless (default 200)");
+		System.out.println("  -dangling uniform|drop  rank of papers citing nothing is spread over all papers (default), or dropped");
+		System.out.println("  -writeRanks <path>      also write the computed ranks in the .ranks format");
+		System.out.println("  -update <changes>       apply a change list (see IndexUpdater) to the existing index instead of rebuilding it");
+		System.out.println("  -batch <n>              with -update, commit after every n changes (default 1000)");
+		System.out.println("  -diff <oldDocs> <changes> write the change list from the input files under oldDocs to those of -docs (give it first), and exit");
+	}
+	
+	static Path subgraphFile(String docsPath)
 	{
-		BufferedReader rankLines = new BufferedReader(new InputStreamReader(Files.newInputStream(ranksFile)));
-		
-		String line;
-		long count = 1;
-		while ((line = rankLines.readLine()) != null)
+		return Paths.get(docsPath + "sigmod_vldb_icse_subgraph.txt");
+	}
+	
+	static Path ranksFile(String docsPath)
+	{
+		return Paths.get(docsPath + "sigmod_vldb_icse.ranks");
+	}
+	
+	static Path clustersFile(String docsPath)
+	{
+		return Paths.get(docsPath + "clusters.txt");
+	}
+	
+	static Path metadataFile(String docsPath, int dataSet)
+	{
+		return Paths.get(docsPath + METADATA_FILES[dataSet]);
+	}
+	
+	/**
+	 * Rebuilds the title completions of the Autocomplete servlet from the index as committed, and stores them in the
+	 * index directory.
+	 */
+	static void buildSuggester(Directory dir, String indexPath) throws IOException
+	{
+		long start = System.nanoTime();
+		try (DirectoryReader reader = DirectoryReader.open(dir)) {
+			int titles = TitleSuggester.build(reader, Paths.get(indexPath, TitleSuggester.FILE_NAME));
+			System.out.println("Built completions for " + titles + " titles in " + (System.nanoTime() - start) / 1000000 + "ms");
+		}
+	}
+	
+	/** Loads the citation graph, the ranks (or computes them) and the clusters, one after the other */
+	static void loadLookupTables(String docsPath) throws Exception
+	{
+		loadSubgraph(subgraphFile(docsPath));
+		if (computePageRank)
+		{
+			computePageRanks();
+		}
+		else
 		{
-			int split = line.indexOf(" ");
-			String sComponent = line.substring(0,  split);
-			String sPaper = line.substring(split+1);
-			Double rankComponent = Double.parseDouble(sComponent);
-			Long paperid = Long.parseLong(sPaper);
-			pageRanksComponent.put(paperid, rankComponent);
-			pageRanks.put(paperid, count);
-			count++;
+			loadPageRanks(ranksFile(docsPath));
 		}
+		loadClusters(clustersFile(docsPath));
 	}
 	
-	static void loadClusters(Path clusterFile) throws IOException
+	/**
+	 * IndexWriter settings of every build and update: documents are stored in rank order (see RankSort), which lets
+	 * the servlet stop sorting the hits of a segment once its top hits are known.  Lucene 6.4 only sorts segments
+	 * when it merges them; flushed segments keep the order their documents were added in.  Full builds therefore end
+	 * with {@link #sortSegments}, while segments flushed by an update stay unsorted (and are collected in full by the
+	 * servlet) until they get merged.
+	 */
+	static IndexWriterConfig indexConfig(Analyzer analyzer)
+	{
+		IndexWriterConfig iwc = new IndexWriterConfig(analyzer);
+		iwc.setIndexSort(RankSort.index());
+		return iwc;
+	}
+	
+	/**
+	 * Merges the index into a single segment, which is written sorted.  A lone flushed segment is rewritten too: it
+	 * was written as a compound file, which a segment holding the whole index is not (see MergePolicy.setNoCFSRatio).
+	 */
+	static void sortSegments(IndexWriter writer) throws IOException
 	{
-		BufferedReader clusterLines = new BufferedReader(new InputStreamReader(Files.newInputStream(clusterFile)));
+		long start = System.nanoTime();
+		writer.forceMerge(1);
+		System.out.println("Merged into one sorted segment in " + (System.nanoTime() - start) / 1000000 + "ms");
+	}
+	
+	/**
+	 * IndexWriter settings for bulk loading: a large RAM buffer so that few, large segments are flushed, and a
+	 * merge policy that lets more segments accumulate per tier before merging them.
+	 */
+	static IndexWriterConfig bulkConfig(Analyzer analyzer)
+	{
+		IndexWriterConfig iwc = indexConfig(analyzer);
+		iwc.setRAMBufferSizeMB(ramBufferMB);
+		TieredMergePolicy mergePolicy = new TieredMergePolicy();
+		mergePolicy.setSegmentsPerTier(20);
+		mergePolicy.setMaxMergeAtOnce(20);
+		iwc.setMergePolicy(mergePolicy);
+		return iwc;
+	}
+	
+	/** A part of one metadata file */
+	private static class Chunk
+	{
+		final TsvReader rows;
+		final String dataSetName;
 		
-		String line;
-		long count = 1;
-		while ((line = clusterLines.readLine()) != null)
+		Chunk(TsvReader rows, String dataSetName)
 		{
-			int split = line.indexOf("\t");
-			String sPaperHexID = line.substring(0,  split);
-			String sCluster = line.substring(split+1);
-			Long paperid = Long.parseLong(sPaperHexID, 16);
-			clusters.put(paperid, sCluster);
-			count++;
-			//System.out.println("Java debugging is great " + count);
+			this.rows = rows;
+			this.dataSetName = dataSetName;
 		}
 	}
 	
-	static void indexMetadata(IndexWriter writer, Path metadataFile, String dataSetName) throws IOException
+	/**
+	 * Indexes the metadata files in parallel.  Each file is split into chunks on line boundaries (several per
+	 * thread, so the workers stay busy until the end), and each worker takes chunks from a shared queue, parses
+	 * them straight from the mapped file into Documents and adds them to the shared writer (IndexWriter is thread
+	 * safe, and each thread fills its own in-memory segment), or, with -perThreadIndexes, to its own index, which are
+	 * all merged into the writer once every chunk is done.
+	 * 
+	 * Documents do not end up in file order.
+	 * 
+	 * @return the number of documents indexed
+	 */
+	static long indexMetadataParallel(final IndexWriter writer, final Analyzer analyzer, Path indexPath, Path[] metadataFiles, String[] dataSetNames) throws Exception
 	{
-		BufferedReader metadataLines = new BufferedReader(new InputStreamReader(Files.newInputStream(metadataFile), StandardCharsets.UTF_8));
+		final ConcurrentLinkedQueue<Chunk> chunks = new ConcurrentLinkedQueue<Chunk>();
+		List<TsvReader> readers = new ArrayList<TsvReader>();
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
 		
-		String line;
-		while ((line = metadataLines.readLine()) != null)
-		{
-			int t1 = line.indexOf('\t');
-			int t2 = line.indexOf('\t', t1 + 1);
+		final Path partsDir = perThreadIndexes ? Files.createTempDirectory(indexPath.toAbsolutePath().getParent(), "index-parts") : null;
+		final Directory[] parts = new Directory[threads];
+		
+		ExecutorService workers = Executors.newFixedThreadPool(threads);
+		long count = 0;
+		try {
+			for (int f = 0; f < metadataFiles.length; f++)
+			{
+				for (TsvReader rows : TsvReader.split(metadataFiles[f], '\t', 4 * threads))
+				{
+					readers.add(rows);
+					chunks.add(new Chunk(rows, dataSetNames[f]));
+				}
+			}
 			
-			String paperHexID = line.substring(0, t1);
-			Long paperID = Long.parseLong(paperHexID, 16);
-			String title = line.substring(t1 + 1, t2);
-			Vector<Long> citations = graph.get(paperID);
-			Double PRcomponent = pageRanksComponent.get(paperID);
-			Long pageRank = pageRanks.get(paperID);
+			List<Future<Long>> counts = new ArrayList<Future<Long>>();
+			for (int w = 0; w < threads; w++)
+			{
+				final int worker = w;
+				counts.add(workers.submit(new Callable<Long>() {
+					public Long call() throws Exception {
+						IndexWriter target = writer;
+						if (perThreadIndexes)
+						{
+							parts[worker] = FSDirectory.open(partsDir.resolve("part-" + worker));
+							target = new IndexWriter(parts[worker], bulkConfig(analyzer));
+						}
+						long indexed = 0;
+						try {
+							Chunk chunk;
+							while (failure.get() == null && (chunk = chunks.poll()) != null)
+							{
+								while (chunk.rows.next())
+								{
+									target.addDocument(buildDocument(chunk.rows, 0, chunk.dataSetName));
+									indexed++;
+								}
+							}
+						} catch (Exception e) {
+							failure.compareAndSet(null, e); //Stops the other workers after their current chunk
+						} finally {
+							if (target != writer)
+							{
+								target.close();
+							}
+						}
+						return indexed;
+					}
+				}));
+			}
 			
-			Document doc = new Document();
-			doc.add(new TextField("title", title, Field.Store.YES));
-			doc.add(new TextField("conference", dataSetName, Field.Store.YES));
-			if (pageRank != null)
+			for (Future<Long> f : counts)
 			{
-				doc.add(new NumericDocValuesField("pageRank", pageRank)); //unsure..
-				doc.add(new StoredField("pageRank", pageRank));
-				doc.add(new NumericDocValuesField("pageRankComponent", Double.doubleToRawLongBits(PRcomponent)));
-				doc.add(new StoredField("pageRankComponent", PRcomponent));
+				count += f.get();
 			}
-			else
+		} finally {
+			workers.shutdown();
+			for (TsvReader rows : readers)
 			{
-				System.out.println("PaperID: " + paperID + " title: " + title + " has no graph information");
+				rows.close();
 			}
-			doc.add(new StoredField("paperID", paperID));
-
-			if (citations != null)
+		}
+		if (failure.get() != null)
+		{
+			throw failure.get();
+		}
+		
+		if (perThreadIndexes)
+		{
+			long merging = System.nanoTime();
+			writer.addIndexes(parts);
+			for (Directory part : parts)
 			{
-				StringBuffer c = new StringBuffer();
-				for (int i = 0; i < citations.size(); i++)
+				part.close();
+			}
+			deleteRecursively(partsDir);
+			System.out.println("Merged " + threads + " indexes in " + (System.nanoTime() - merging) / 1000000 + "ms");
+		}
+		return count;
+	}
+	
+	static void deleteRecursively(Path dir) throws IOException
+	{
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+			
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+	
+	static void loadSubgraph(Path graphFile) throws IOException
+	{
+		graph = CitationGraph.load(graphFile);
+		System.out.println("Citation graph: " + graph.nodeCount() + " papers, " + graph.edgeCount() + " citations, "
+				+ megabytes(graph.ramBytesUsed()));
+	}
+	
+	/**
+	 * Computes PageRank over the loaded citation graph and fills pageRanks and pageRanksComponent the same way
+	 * loadPageRanks does (sorted by rank, so pageRank is the position in that order).
+	 */
+	static void computePageRanks() throws Exception
+	{
+		long start = System.nanoTime();
+		PageRank pageRank = new PageRank(graph, damping, tolerance, maxIterations, dangling, Runtime.getRuntime().availableProcessors());
+		double[] ranks = pageRank.compute();
+		Integer[] order = PageRank.byRank(ranks);
+		pageRanksComponent = new double[order.length];
+		for (int i = 0; i < order.length; i++)
+		{
+			pageRanksComponent[i] = ranks[order[i]];
+			pageRanks.put(graph.paperId(order[i]), i);
+		}
+		System.out.println("PageRank: " + pageRank.getIterations() + " iterations in " + (System.nanoTime() - start) / 1000000 + "ms");
+		if (ranksOutput != null)
+		{
+			PageRank.writeRanks(ranksOutput, graph, ranks);
+			System.out.println("Wrote ranks to '" + ranksOutput + "'");
+		}
+	}
+	
+	static String megabytes(long bytes)
+	{
+		return String.format("%.1fMB", bytes / (1024.0 * 1024.0));
+	}
+	
+	static void loadPageRanks(Path ranksFile) throws IOException
+	{
+		int count = 0;
+		double[] components = new double[1 << 16];
+		try (TsvReader rankLines = TsvReader.open(ranksFile, ' ')) {
+			while (rankLines.next())
+			{
+				double rankComponent = rankLines.number(0);
+				long paperid = rankLines.decimal(1);
+				if (count == components.length)
 				{
-					c.append(citations.get(i));
-					if (i != citations.size() -1)
-					{
-						c.append(";");
-					}
+					components = Arrays.copyOf(components, count * 2);
 				}
-				
-				doc.add(new TextField("citations", c.toString(), Field.Store.YES));
+				components[count] = rankComponent;
+				pageRanks.put(paperid, count);
+				count++;
 			}
-			
-			String cluster = clusters.get(paperID);
-			if (cluster != null)
+		}
+		pageRanksComponent = Arrays.copyOf(components, count);
+		System.out.println("Page ranks: " + count + " papers, " + megabytes(pageRanks.ramBytesUsed() + 8L * count));
+	}
+	
+	static void loadClusters(Path clusterFile) throws IOException
+	{
+		long count = 0;
+		Map<String, Integer> clusterIndex = new HashMap<String, Integer>(); //Only a handful of distinct clusters
+		try (TsvReader clusterLines = TsvReader.open(clusterFile, '\t')) {
+			while (clusterLines.next())
 			{
-				doc.add(new StringField("cluster", cluster, Field.Store.YES));
+				long paperid = clusterLines.hex(0);
+				String sCluster = clusterLines.string(1);
+				Integer cluster = clusterIndex.get(sCluster);
+				if (cluster == null)
+				{
+					cluster = clusterNames.size();
+					clusterNames.add(sCluster);
+					clusterIndex.put(sCluster, cluster);
+				}
+				clusters.put(paperid, cluster);
+				count++;
 			}
-			
-			writer.addDocument(doc);
-			
-			
 		}
+		System.out.println("Clusters: " + count + " papers in " + clusterNames.size() + " clusters, " + megabytes(clusters.ramBytesUsed()));
+	}
+	
+	static long indexMetadata(IndexWriter writer, Path metadataFile, String dataSetName) throws IOException
+	{
+		long count = 0;
+		try (TsvReader metadataLines = TsvReader.open(metadataFile, '\t')) {
+			while (metadataLines.next())
+			{
+				writer.addDocument(buildDocument(metadataLines, 0, dataSetName));
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	/**
+	 * Builds the Document for the current line of a metadata file, whose columns start at field offset of the row
+	 * (0, or 2 for an upsert line of a change list).  Only reads the lookup tables, so it may be called from several
+	 * threads at once (with one reader each).
+	 */
+	static Document buildDocument(TsvReader row, int offset, String dataSetName)
+	{
+		long paperID = row.hex(offset + PAPER_ID);
+		int rank = pageRanks.get(paperID);
+		return buildDocument(paperID, row.string(offset + TITLE),
+				row.isEmpty(offset + YEAR) ? NO_YEAR : (int) row.decimal(offset + YEAR),
+				row.isEmpty(offset + DOI) ? null : row.string(offset + DOI), dataSetName,
+				(rank == LongIntHashMap.MISSING) ? 0 : rank + 1, (rank == LongIntHashMap.MISSING) ? 0 : pageRanksComponent[rank], null);
+	}
+	
+	/**
+	 * Builds the Document of a paper from its metadata (year NO_YEAR and doi null if unknown) and rank (pageRank 0 if
+	 * it has none), with its citations and cluster from the lookup tables.  The prediction is computed with the
+	 * classifier, if there is one, unless it is given.
+	 */
+	static Document buildDocument(long paperID, String title, int year, String doi, String dataSetName, long pageRank, double PRcomponent, String predicted)
+	{
+		int node = graph.node(paperID);
+		
+		Document doc = new Document();
+		doc.add(new TextField("title", title, Field.Store.YES));
+		doc.add(new TextField("conference", dataSetName, Field.Store.YES));
+		doc.add(new SortedDocValuesField("conference", new BytesRef(dataSetName))); //For faceting without loading stored fields
+		if (year != NO_YEAR)
+		{
+			doc.add(new IntPoint("year", year));
+			doc.add(new NumericDocValuesField("year", year));
+			doc.add(new StoredField("year", year));
+		}
+		if (doi != null)
+		{
+			doc.add(new StringField("doi", doi, Field.Store.YES));
+		}
+		if (pageRank != 0)
+		{
+			doc.add(new NumericDocValuesField("pageRank", pageRank)); //unsure..
+			doc.add(new StoredField("pageRank", pageRank));
+			doc.add(new NumericDocValuesField("pageRankComponent", Double.doubleToRawLongBits(PRcomponent)));
+			doc.add(new StoredField("pageRankComponent", PRcomponent));
+		}
+		else
+		{
+			System.out.println("PaperID: " + paperID + " title: " + title + " has no graph information");
+		}
+		doc.add(new StoredField("paperID", paperID));
+		doc.add(new StringField("paperID", Long.toString(paperID), Field.Store.NO)); //The key of IndexUpdater
+		doc.add(new NumericDocValuesField("paperID", paperID)); //Maps citations back to documents, see CitationIndex
+
+		if (node >= 0)
+		{
+			//One value per cited paper; the servlet builds its citation graph from these
+			for (int i = graph.citationsStart(node); i < graph.citationsEnd(node); i++)
+			{
+				doc.add(new SortedNumericDocValuesField("citations", graph.paperId(graph.target(i))));
+			}
+		}
+		
+		int clusterIndex = clusters.get(paperID);
+		if (clusterIndex != LongIntHashMap.MISSING)
+		{
+			String cluster = clusterNames.get(clusterIndex);
+			doc.add(new StringField("cluster", cluster, Field.Store.YES));
+			doc.add(new SortedDocValuesField("cluster", new BytesRef(cluster)));
+		}
+		
+		if (predicted == null && classifier != null)
+		{
+			//Titles never change after indexing, so the prediction is computed once here instead of on every query
+			predicted = classifier.classify(title);
+		}
+		if (predicted != null)
+		{
+			doc.add(new StringField("predicted", predicted, Field.Store.YES));
+			doc.add(new SortedDocValuesField("predicted", new BytesRef(predicted)));
+		}
+		
+		return doc;
 	}
 
 	/** Indexes a single document */
@@ -0,0 +1,242 @@
+package luceneindexer;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.MathContext;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Computes PageRank over a CitationGraph by power iteration.
+ *
+ * The iteration is pull based: each node sums the contributions (rank / out-degree) of the papers citing it, read
+ * from the reversed graph, so every node's new rank is written by exactly one thread and no synchronization is
+ * needed within an iteration.  Nodes are split into contiguous ranges, one per thread.
+ *
+ * Ranks sum to 1.  Iteration stops when the L1 distance between two iterations drops below the tolerance.
+ */
+public class PageRank {
+	/** What happens to the rank of papers that cite nothing (inside the graph) */
+	public enum Dangling {
+		UNIFORM, //Spread evenly over all papers, as if they cited every paper
+		DROP //Discarded; ranks are renormalized to sum to 1 once the iteration has converged
+	}
+
+	private final CitationGraph graph;
+	private final CitationGraph citedBy;
+	private final double damping;
+	private final double tolerance;
+	private final int maxIterations;
+	private final Dangling dangling;
+	private final int threads;
+
+	private double[] ranks;
+	private double[] next;
+	private final double[] contributions; //ranks[n] / outDegree(n) of the current iteration
+	private int iterations;
+
+	public PageRank(CitationGraph graph, double damping, double tolerance, int maxIterations, Dangling dangling, int threads)
+	{
+		this.graph = graph;
+		this.citedBy = graph.reverse();
+		this.damping = damping;
+		this.tolerance = tolerance;
+		this.maxIterations = maxIterations;
+		this.dangling = dangling;
+		this.threads = Math.max(1, Math.min(threads, graph.nodeCount() / 1024 + 1)); //Small graphs are not worth splitting
+		int nodes = graph.nodeCount();
+		this.ranks = new double[nodes];
+		this.next = new double[nodes];
+		this.contributions = new double[nodes];
+	}
+
+	/**
+	 * Runs the iteration to convergence (or maxIterations).
+	 *
+	 * @return the rank of each node of the graph
+	 */
+	public double[] compute() throws Exception
+	{
+		final int nodes = graph.nodeCount();
+		if (nodes == 0)
+		{
+			return ranks;
+		}
+		Arrays.fill(ranks, 1.0 / nodes);
+
+		ExecutorService pool = Executors.newFixedThreadPool(threads);
+		try {
+			iterations = 0;
+			double delta = Double.POSITIVE_INFINITY;
+			while (delta >= tolerance && iterations < maxIterations)
+			{
+				//Phase 1: per-node contributions and the rank held by dangling nodes
+				double danglingRank = 0;
+				for (double d : run(pool, new RangeTask() {
+					public double run(int from, int to) {
+						double sum = 0;
+						for (int n = from; n < to; n++)
+						{
+							int degree = graph.outDegree(n);
+							if (degree == 0)
+							{
+								sum += ranks[n];
+								contributions[n] = 0;
+							}
+							else
+							{
+								contributions[n] = ranks[n] / degree;
+							}
+						}
+						return sum;
+					}
+				}))
+				{
+					danglingRank += d;
+				}
+
+				//Phase 2: every node pulls from the papers citing it
+				final double base = (1 - damping) / nodes + ((dangling == Dangling.UNIFORM) ? damping * danglingRank / nodes : 0);
+				delta = 0;
+				for (double d : run(pool, new RangeTask() {
+					public double run(int from, int to) {
+						double diff = 0;
+						for (int n = from; n < to; n++)
+						{
+							double sum = 0;
+							for (int i = citedBy.citationsStart(n); i < citedBy.citationsEnd(n); i++)
+							{
+								sum += contributions[citedBy.target(i)];
+							}
+							double rank = base + damping * sum;
+							diff += Math.abs(rank - ranks[n]);
+							next[n] = rank;
+						}
+						return diff;
+					}
+				}))
+				{
+					delta += d;
+				}
+
+				double[] swap = ranks;
+				ranks = next;
+				next = swap;
+				iterations++;
+			}
+		} finally {
+			pool.shutdown();
+		}
+
+		if (dangling == Dangling.DROP)
+		{
+			double total = 0;
+			for (double rank : ranks)
+			{
+				total += rank;
+			}
+			for (int n = 0; n < nodes; n++)
+			{
+				ranks[n] /= total;
+			}
+		}
+		return ranks;
+	}
+
+	public int getIterations()
+	{
+		return iterations;
+	}
+
+	/** Work over a contiguous range of nodes, returning a partial sum */
+	private interface RangeTask {
+		double run(int from, int to);
+	}
+
+	private double[] run(ExecutorService pool, final RangeTask task) throws Exception
+	{
+		int nodes = graph.nodeCount();
+		List<Future<Double>> parts = new ArrayList<Future<Double>>(threads);
+		for (int t = 0; t < threads; t++)
+		{
+			final int from = (int) ((long) nodes * t / threads);
+			final int to = (int) ((long) nodes * (t + 1) / threads);
+			parts.add(pool.submit(new Callable<Double>() {
+				public Double call() {
+					return task.run(from, to);
+				}
+			}));
+		}
+		double[] sums = new double[threads];
+		for (int t = 0; t < threads; t++)
+		{
+			sums[t] = parts.get(t).get();
+		}
+		return sums;
+	}
+
+	/**
+	 * @return the nodes of the graph, highest rank first (ties in node order)
+	 */
+	public static Integer[] byRank(final double[] ranks)
+	{
+		Integer[] order = new Integer[ranks.length];
+		for (int n = 0; n < order.length; n++)
+		{
+			order[n] = n;
+		}
+		Arrays.sort(order, new Comparator<Integer>() {
+			public int compare(Integer a, Integer b) {
+				return Double.compare(ranks[b], ranks[a]);
+			}
+		});
+		return order;
+	}
+
+	/**
+	 * Writes ranks in the format of sigmod_vldb_icse.ranks: "rank paperId" per line, highest rank first, with the
+	 * rank printed to 6 significant digits like C's %g.
+	 */
+	public static void writeRanks(Path ranksFile, CitationGraph graph, double[] ranks) throws IOException
+	{
+		try (BufferedWriter out = Files.newBufferedWriter(ranksFile, StandardCharsets.UTF_8)) {
+			for (int n : byRank(ranks))
+			{
+				out.write(formatRank(ranks[n]));
+				out.write(' ');
+				out.write(Long.toString(graph.paperId(n)));
+				out.write('\n');
+			}
+		}
+	}
+
+	/**
+	 * Formats like printf("%g"): 6 significant digits, trailing zeros removed, and exponent notation below 1e-4.
+	 */
+	static String formatRank(double rank)
+	{
+		if (rank == 0 || Double.isNaN(rank) || Double.isInfinite(rank))
+		{
+			return (rank == 0) ? "0" : Double.toString(rank);
+		}
+		BigDecimal rounded = new BigDecimal(rank).round(new MathContext(6)).stripTrailingZeros();
+		int exponent = rounded.precision() - rounded.scale() - 1;
+		if (exponent >= -4 && exponent < 6)
+		{
+			return rounded.toPlainString();
+		}
+		String mantissa = rounded.movePointLeft(exponent).toPlainString();
+		int e = Math.abs(exponent);
+		return mantissa + ((exponent < 0) ? "e-" : "e+") + ((e < 10) ? "0" : "") + e;
+	}
+}
@@ -0,0 +1,442 @@
+package luceneindexer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Reads a delimited text file (the *_id.txt metadata, the citation edges, the ranks and the clusters) from a
+ * memory-mapped region, one line at a time, without creating a String per line.
+ *
+ * After {@link #next()}, the fields of the current line are just offsets into the mapped bytes.  Numbers are parsed
+ * straight from those bytes ({@link #hex}, {@link #decimal}, {@link #number}); only {@link #string} decodes a field
+ * into a new String, for the fields that are kept (titles, names).
+ *
+ * A mapped region is indexed by int, so a file is mapped in chunks that start and end on line boundaries: a reader
+ * from {@link #open} maps the next chunk when it reaches the end of the current one, so files of any size are read
+ * in order.  A file can also be {@link #split} into such chunks, so that several threads can parse it at once.
+ * Lines may end with \n or \r\n.  Instances are not thread safe; use one reader per thread.
+ */
+public class TsvReader implements Closeable {
+	//A mapped region is indexed by int; chunks are kept well below that, leaving room to end them on a line boundary
+	private static final long MAX_CHUNK = 1L << 30;
+	private static final int MAX_FIELDS = 64;
+
+	private final FileChannel channel;
+	private final byte separator;
+	private final long end; //End of the part of the file this reader reads
+	private long mappedEnd; //End of the current chunk in the file
+	private MappedByteBuffer bytes;
+	private int limit;
+	private int position;
+
+	//Field i of the current line is bytes[starts[i], ends[i])
+	private final int[] starts = new int[MAX_FIELDS];
+	private final int[] ends = new int[MAX_FIELDS];
+	private int fields;
+
+	private byte[] scratch = new byte[256]; //For decoding strings
+
+	private TsvReader(FileChannel channel, long start, long end, byte separator) throws IOException
+	{
+		this.channel = channel;
+		this.separator = separator;
+		this.end = end;
+		map(start);
+	}
+
+	/**
+	 * Maps the chunk starting at start (a line start), up to the end of the line after MAX_CHUNK bytes at most.
+	 */
+	private void map(long start) throws IOException
+	{
+		long chunkEnd = (end - start <= MAX_CHUNK) ? end : nextLineStart(channel, start + MAX_CHUNK, end);
+		if (chunkEnd - start > Integer.MAX_VALUE)
+		{
+			throw new IOException("Line too long to map at offset " + start);
+		}
+		bytes = channel.map(FileChannel.MapMode.READ_ONLY, start, chunkEnd - start);
+		mappedEnd = chunkEnd;
+		limit = (int) (chunkEnd - start);
+		position = 0;
+	}
+
+	/**
+	 * Opens a whole file, to be read in order.  Files larger than a chunk are mapped one chunk at a time.
+	 */
+	public static TsvReader open(Path file, char separator) throws IOException
+	{
+		FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+		try {
+			return new TsvReader(channel, 0, channel.size(), (byte) separator);
+		} catch (IOException e) {
+			channel.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * Splits a file into about the given number of chunks (more if needed to keep each chunk mappable), each
+	 * starting at the beginning of a line and ending after a newline (or at the end of the file).
+	 */
+	public static List<TsvReader> split(Path file, char separator, int chunks) throws IOException
+	{
+		List<TsvReader> readers = new ArrayList<TsvReader>();
+		try (FileChannel probe = FileChannel.open(file, StandardOpenOption.READ)) {
+			long size = probe.size();
+			long chunkSize = Math.min(Math.max(size / Math.max(chunks, 1), 1), MAX_CHUNK - (1 << 20));
+			long start = 0;
+			while (start < size)
+			{
+				long end = Math.min(start + chunkSize, size);
+				end = nextLineStart(probe, end, size);
+				//Each chunk has its own channel, so that chunks can be closed independently
+				FileChannel channel = FileChannel.open(file, StandardOpenOption.READ);
+				readers.add(new TsvReader(channel, start, end, (byte) separator));
+				start = end;
+			}
+		} catch (IOException e) {
+			for (TsvReader reader : readers)
+			{
+				reader.close();
+			}
+			throw e;
+		}
+		return readers;
+	}
+
+	/** Returns the offset just after the first newline at or after offset (or size if there is none) */
+	private static long nextLineStart(FileChannel channel, long offset, long size) throws IOException
+	{
+		if (offset >= size)
+		{
+			return size;
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(4096);
+		long position = offset - 1; //offset may already be a line start
+		while (position < size)
+		{
+			buffer.clear();
+			int read = channel.read(buffer, position);
+			if (read <= 0)
+			{
+				break;
+			}
+			for (int i = 0; i < read; i++)
+			{
+				if (buffer.get(i) == '\n')
+				{
+					return position + i + 1;
+				}
+			}
+			position += read;
+		}
+		return size;
+	}
+
+	/**
+	 * Advances to the next line.  Offsets of the previous line ({@link #start}, {@link #end}) are not valid after this,
+	 * since it may map the next chunk.
+	 *
+	 * @return false at the end of the file (or of the chunk, for a reader from {@link #split})
+	 */
+	public boolean next() throws IOException
+	{
+		while (position >= limit)
+		{
+			if (mappedEnd >= end)
+			{
+				return false;
+			}
+			map(mappedEnd);
+		}
+		int p = position;
+		fields = 0;
+		starts[0] = p;
+		while (p < limit)
+		{
+			byte b = bytes.get(p);
+			if (b == '\n')
+			{
+				break;
+			}
+			if (b == separator && fields < MAX_FIELDS - 1)
+			{
+				ends[fields++] = p;
+				starts[fields] = p + 1;
+			}
+			p++;
+		}
+		int lineEnd = p;
+		if (lineEnd > starts[fields] && bytes.get(lineEnd - 1) == '\r')
+		{
+			lineEnd--;
+		}
+		ends[fields++] = lineEnd;
+		position = p + 1;
+		return true;
+	}
+
+	public int fieldCount()
+	{
+		return fields;
+	}
+
+	public boolean isEmpty(int field)
+	{
+		return field >= fields || starts[field] == ends[field];
+	}
+
+	/** Offset of the field in {@link #bytes()} */
+	public int start(int field)
+	{
+		return starts[field];
+	}
+
+	/** End offset (exclusive) of the field in {@link #bytes()} */
+	public int end(int field)
+	{
+		return ends[field];
+	}
+
+	/** The mapped bytes of the current chunk; fields are ranges of it, see {@link #start} and {@link #end} */
+	public MappedByteBuffer bytes()
+	{
+		return bytes;
+	}
+
+	private void checkField(int field)
+	{
+		if (field >= fields)
+		{
+			throw new NumberFormatException("Line has " + fields + " fields, no field " + field);
+		}
+	}
+
+	/**
+	 * Parses a field of hexadecimal digits (either case), like Long.parseLong(s, 16) for non-negative values.
+	 */
+	public long hex(int field)
+	{
+		checkField(field);
+		int start = starts[field];
+		int end = ends[field];
+		if (start == end || end - start > 16)
+		{
+			return Long.parseLong(string(field), 16); //Let parseLong report the error (or parse a sign)
+		}
+		long value = 0;
+		for (int i = start; i < end; i++)
+		{
+			int b = bytes.get(i);
+			int digit;
+			if (b >= '0' && b <= '9')
+			{
+				digit = b - '0';
+			}
+			else if (b >= 'A' && b <= 'F')
+			{
+				digit = b - 'A' + 10;
+			}
+			else if (b >= 'a' && b <= 'f')
+			{
+				digit = b - 'a' + 10;
+			}
+			else
+			{
+				return Long.parseLong(string(field), 16);
+			}
+			value = (value << 4) | digit;
+		}
+		if (end - start == 16 && value < 0)
+		{
+			return Long.parseLong(string(field), 16); //Overflow: let parseLong report it
+		}
+		return value;
+	}
+
+	/**
+	 * Parses a field of decimal digits, like Long.parseLong for non-negative values.
+	 */
+	public long decimal(int field)
+	{
+		checkField(field);
+		int start = starts[field];
+		int end = ends[field];
+		if (start == end || end - start > 18)
+		{
+			return Long.parseLong(string(field));
+		}
+		long value = 0;
+		for (int i = start; i < end; i++)
+		{
+			int digit = bytes.get(i) - '0';
+			if (digit < 0 || digit > 9)
+			{
+				return Long.parseLong(string(field));
+			}
+			value = value * 10 + digit;
+		}
+		return value;
+	}
+
+	//Powers of ten that are exactly representable as doubles
+	private static final double[] POWERS_OF_TEN = {
+		1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+		1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22
+	};
+
+	/**
+	 * Parses a field as a double, giving exactly the result of Double.parseDouble.
+	 *
+	 * Plain decimals like "0.0104604" or "3.4757e-05" with at most 15 significant digits and a small exponent are
+	 * computed directly: the digits and the power of ten are both exact doubles, so one multiplication or division
+	 * is correctly rounded (Clinger's fast path).  Anything else falls back to Double.parseDouble.
+	 */
+	public double number(int field)
+	{
+		checkField(field);
+		int i = starts[field];
+		int end = ends[field];
+		boolean negative = false;
+		if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+'))
+		{
+			negative = bytes.get(i) == '-';
+			i++;
+		}
+		long mantissa = 0;
+		int digits = 0;
+		int exponent = 0;
+		boolean any = false;
+		for (; i < end; i++)
+		{
+			int digit = bytes.get(i) - '0';
+			if (digit < 0 || digit > 9)
+			{
+				break;
+			}
+			any = true;
+			if (mantissa != 0 || digit != 0)
+			{
+				mantissa = mantissa * 10 + digit;
+				digits++;
+			}
+			if (digits > 15)
+			{
+				return Double.parseDouble(string(field));
+			}
+		}
+		if (i < end && bytes.get(i) == '.')
+		{
+			for (i++; i < end; i++)
+			{
+				int digit = bytes.get(i) - '0';
+				if (digit < 0 || digit > 9)
+				{
+					break;
+				}
+				any = true;
+				if (mantissa != 0 || digit != 0)
+				{
+					mantissa = mantissa * 10 + digit;
+					digits++;
+				}
+				exponent--;
+				if (digits > 15)
+				{
+					return Double.parseDouble(string(field));
+				}
+			}
+		}
+		if (i < end && (bytes.get(i) == 'e' || bytes.get(i) == 'E'))
+		{
+			i++;
+			boolean negativeExponent = false;
+			if (i < end && (bytes.get(i) == '-' || bytes.get(i) == '+'))
+			{
+				negativeExponent = bytes.get(i) == '-';
+				i++;
+			}
+			int e = 0;
+			int exponentDigits = 0;
+			for (; i < end; i++)
+			{
+				int digit = bytes.get(i) - '0';
+				if (digit < 0 || digit > 9 || exponentDigits > 5)
+				{
+					return Double.parseDouble(string(field));
+				}
+				e = e * 10 + digit;
+				exponentDigits++;
+			}
+			if (exponentDigits == 0)
+			{
+				return Double.parseDouble(string(field));
+			}
+			exponent += negativeExponent ? -e : e;
+		}
+		if (!any || i != end || digits > 15 || exponent < -22 || exponent > 22)
+		{
+			return Double.parseDouble(string(field)); //Also reports malformed numbers
+		}
+		double value = (exponent < 0) ? mantissa / POWERS_OF_TEN[-exponent] : mantissa * POWERS_OF_TEN[exponent];
+		return negative ? -value : value;
+	}
+
+	/**
+	 * Decodes a field from UTF-8 into a new String (malformed input is replaced, as BufferedReader does).
+	 */
+	public String string(int field)
+	{
+		if (field >= fields)
+		{
+			return null;
+		}
+		int start = starts[field];
+		int length = ends[field] - start;
+		if (scratch.length < length)
+		{
+			scratch = Arrays.copyOf(scratch, Math.max(length, 2 * scratch.length));
+		}
+		for (int i = 0; i < length; i++)
+		{
+			scratch[i] = bytes.get(start + i);
+		}
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Decodes the whole current line (without its line ending) into a new String.
+	 */
+	public String line()
+	{
+		int start = starts[0];
+		int length = ends[fields - 1] - start;
+		if (scratch.length < length)
+		{
+			scratch = Arrays.copyOf(scratch, Math.max(length, 2 * scratch.length));
+		}
+		for (int i = 0; i < length; i++)
+		{
+			scratch[i] = bytes.get(start + i);
+		}
+		return new String(scratch, 0, length, StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * Closes the file.  The mapping itself is released when the reader is garbage collected.
+	 */
+	@Override
+	public void close() throws IOException
+	{
+		channel.close();
+	}
+}
@@ -0,0 +1,105 @@
+package luceneindexer;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.IndexWriterConfig.OpenMode;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Indexing the metadata files of the bundled data set into a fresh index on disk, as LuceneIndexer does after it
+ * has loaded the citation graph, ranks and clusters (those are loaded once, outside the measurement).  Each
+ * operation is a whole build, up to closing the writer; the "documents" counter reports the rate in docs/sec.
+ *
+ * threads = 1 is the sequential indexMetadata path, more is indexMetadataParallel with that many workers.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 10)
+@Measurement(iterations = 5, time = 10)
+@Fork(1)
+public class IndexingBenchmark {
+	@Param({ "LuceneIndexer/sigmod_vldb_icse/" })
+	public String data;
+
+	@Param({ "1", "4" })
+	public int threads;
+
+	private Path index;
+	private Path[] metadataFiles;
+	private final Analyzer analyzer = new StandardAnalyzer();
+
+	@State(Scope.Thread)
+	@AuxCounters(AuxCounters.Type.OPERATIONS)
+	public static class Documents {
+		public long documents;
+
+		@Setup(Level.Iteration)
+		public void reset() {
+			documents = 0;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		String docsPath = data.endsWith("/") ? data : data + "/";
+		LuceneIndexer.loadLookupTables(docsPath);
+		LuceneIndexer.threads = threads;
+		metadataFiles = new Path[LuceneIndexer.METADATA_FILES.length];
+		for (int f = 0; f < metadataFiles.length; f++)
+		{
+			metadataFiles[f] = LuceneIndexer.metadataFile(docsPath, f);
+		}
+		index = Files.createTempDirectory("paperfinder-benchmark-indexing");
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		LuceneIndexer.deleteRecursively(index);
+	}
+
+	@Benchmark
+	public long index(Documents documents) throws Exception {
+		long count = 0;
+		try (Directory dir = FSDirectory.open(index)) {
+			IndexWriterConfig iwc = (threads <= 1) ? LuceneIndexer.indexConfig(analyzer) : LuceneIndexer.bulkConfig(analyzer);
+			iwc.setOpenMode(OpenMode.CREATE);
+			IndexWriter writer = new IndexWriter(dir, iwc);
+			if (threads <= 1)
+			{
+				for (int f = 0; f < metadataFiles.length; f++)
+				{
+					count += LuceneIndexer.indexMetadata(writer, metadataFiles[f], LuceneIndexer.DATA_SETS[f]);
+				}
+			}
+			else
+			{
+				count = LuceneIndexer.indexMetadataParallel(writer, analyzer, index, metadataFiles, LuceneIndexer.DATA_SETS);
+			}
+			writer.close();
+		}
+		documents.documents += count;
+		return count;
+	}
+}
@@ -0,0 +1,93 @@
+package paperfinder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.List;
+
+import luceneindexer.LuceneIndexer;
+
+/**
+ * The inputs shared by the benchmarks: the bundled data set, an index built from it, and the classifier model.
+ *
+ * Paths are relative to the repository root, where the benchmarks are meant to be run from; each benchmark takes
+ * them as @Param values, so another data set can be given with e.g. -p data=/path/to/docs/.
+ */
+class BenchmarkData {
+	static final String DATA = "LuceneIndexer/sigmod_vldb_icse/";
+	static final String MODEL = "WebContent/classifier.bin";
+
+	private static final String[] METADATA_FILES = { "icse_id.txt", "sigmod_id.txt", "vldb_id.txt" };
+
+	/**
+	 * Indexes the data set the way a default LuceneIndexer run does, into a new temporary directory.  Takes a few
+	 * seconds, and is done once per benchmark fork.
+	 */
+	static Path buildIndex(String data) throws Exception
+	{
+		Path index = Files.createTempDirectory("paperfinder-benchmark-index");
+		LuceneIndexer.main(new String[] { "-docs", data, "-index", index.toString() });
+		return index;
+	}
+
+	/**
+	 * @return the titles of the data set, in file order
+	 */
+	static List<String> titles(String data) throws IOException
+	{
+		List<String> titles = new ArrayList<String>();
+		for (String file : METADATA_FILES)
+		{
+			try (BufferedReader lines = Files.newBufferedReader(Paths.get(data, file), StandardCharsets.UTF_8)) {
+				String line;
+				while ((line = lines.readLine()) != null)
+				{
+					String[] fields = line.split("\t", 3);
+					if (fields.length > 1)
+					{
+						titles.add(fields[1]);
+					}
+				}
+			}
+		}
+		return titles;
+	}
+
+	/**
+	 * @return the paper with the highest PageRank, in decimal as the "paper" argument takes it
+	 */
+	static String topRankedPaper(String data) throws IOException
+	{
+		try (BufferedReader lines = Files.newBufferedReader(Paths.get(data, "sigmod_vldb_icse.ranks"), StandardCharsets.UTF_8)) {
+			return lines.readLine().split(" ")[1];
+		}
+	}
+
+	static void delete(Path dir) throws IOException
+	{
+		if (dir == null || !Files.exists(dir))
+		{
+			return;
+		}
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,49 @@
+package paperfinder;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+import org.openjdk.jmh.runner.options.ProfilerConfig;
+
+/**
+ * Entry point of benchmarks.jar: the JMH command line, with different defaults so that a plain run is ready to be
+ * tracked.  The GC profiler is always added (allocation rate and bytes allocated per operation, next to the time),
+ * and results are written as JSON to jmh-result.json, unless -rf / -rff say otherwise.
+ *
+ * Usage: java -jar benchmarks/target/benchmarks.jar [JMH options] [benchmark regex...], from the repository root.
+ */
+public class Benchmarks {
+	public static void main(String[] args) throws Exception
+	{
+		CommandLineOptions cmd = new CommandLineOptions(args);
+		if (cmd.shouldHelp() || cmd.shouldList() || cmd.shouldListWithParams() || cmd.shouldListProfilers() || cmd.shouldListResultFormats())
+		{
+			//Informational runs are left to JMH's own entry point
+			org.openjdk.jmh.Main.main(args);
+			return;
+		}
+
+		OptionsBuilder options = new OptionsBuilder();
+		options.parent(cmd);
+		boolean gc = false;
+		for (ProfilerConfig profiler : cmd.getProfilers())
+		{
+			gc |= profiler.getKlass().equals(GCProfiler.class.getName()) || profiler.getKlass().equals("gc");
+		}
+		if (!gc)
+		{
+			options.addProfiler(GCProfiler.class);
+		}
+		if (!cmd.getResultFormat().hasValue())
+		{
+			options.resultFormat(ResultFormatType.JSON);
+		}
+		if (!cmd.getResult().hasValue())
+		{
+			options.result("jmh-result.json");
+		}
+		new Runner(options).run();
+	}
+}
@@ -0,0 +1,71 @@
+package paperfinder;
+
+import java.nio.file.Paths;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Throughput of MultinomialNaiveBayesClassifier over the titles of the bundled data set: one title at a time, as
+ * LuceneIndexer -classifier does, and a page of 10 at once, as PaperFinder does for results without a stored
+ * prediction.  Titles are taken round robin, so the mix of lengths and vocabulary is that of the corpus.
+ *
+ * The model defaults to the binary one; -p model=WebContent/classifier.dat measures the parsed text model.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ClassifierBenchmark {
+	private static final int PAGE_SIZE = 10;
+
+	@Param({ BenchmarkData.DATA })
+	public String data;
+
+	@Param({ BenchmarkData.MODEL })
+	public String model;
+
+	private MultinomialNaiveBayesClassifier classifier;
+	private List<String> titles;
+
+	@State(Scope.Thread)
+	public static class Position {
+		int next;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		classifier = new MultinomialNaiveBayesClassifier(Paths.get(model));
+		titles = BenchmarkData.titles(data);
+		//Only whole pages, so that every page has the same size
+		titles = titles.subList(0, titles.size() - titles.size() % PAGE_SIZE);
+	}
+
+	@Benchmark
+	public String classifyTitle(Position position) {
+		String title = titles.get(position.next);
+		position.next = (position.next + 1) % titles.size();
+		return classifier.classify(title);
+	}
+
+	@Benchmark
+	public List<String> classifyPage(Position position) {
+		List<String> page = titles.subList(position.next, position.next + PAGE_SIZE);
+		position.next = (position.next + PAGE_SIZE) % titles.size();
+		return classifier.classify(page);
+	}
+}
@@ -0,0 +1,109 @@
+package paperfinder;
+
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.store.FSDirectory;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * The cost of faceting: collecting the top hits the way PaperFinder does (sorted by pageRankComponent, 10 pages
+ * deep), with and without the FacetCollector alongside, and the FacetCollector on its own.  The queries range from
+ * every document to a few hundred hits.
+ *
+ * The index is sorted by rank, as LuceneIndexer writes it; rankTerminatedHitsAndFacets is what PaperFinder does by
+ * default, stopping the top hits collector of each segment once its top hits are known.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FacetBenchmark {
+	private static final int DEPTH = 100;
+
+	@Param({ BenchmarkData.DATA })
+	public String data;
+
+	@Param({ "*:*", "data", "query optimization" })
+	public String query;
+
+	private Path index;
+	private DirectoryReader reader;
+	private IndexSearcher searcher;
+	private Query parsed;
+	private Sort prSort;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		index = BenchmarkData.buildIndex(data);
+		reader = DirectoryReader.open(FSDirectory.open(index));
+		searcher = new IndexSearcher(reader);
+		parsed = PaperFinder.parseQuery(new StandardAnalyzer(), query, null);
+		prSort = RankSort.results();
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		reader.close();
+		BenchmarkData.delete(index);
+	}
+
+	@Benchmark
+	public TopDocs topHits() throws Exception {
+		TopFieldCollector top = TopFieldCollector.create(prSort, DEPTH, null, true, true, true);
+		searcher.search(parsed, top);
+		return top.topDocs();
+	}
+
+	@Benchmark
+	public void topHitsAndFacets(Blackhole bh) throws Exception {
+		TopFieldCollector top = TopFieldCollector.create(prSort, DEPTH, null, true, true, true);
+		FacetCollector facets = new FacetCollector();
+		searcher.search(parsed, MultiCollector.wrap(top, facets));
+		bh.consume(top.topDocs());
+		bh.consume(facets.getClusterCounts());
+		bh.consume(facets.getConferenceCounts());
+	}
+
+	@Benchmark
+	public void rankTerminatedHitsAndFacets(Blackhole bh) throws Exception {
+		TopFieldCollector top = TopFieldCollector.create(prSort, DEPTH, null, true, true, true);
+		FacetCollector facets = new FacetCollector();
+		searcher.search(parsed, MultiCollector.wrap(new RankTerminatingCollector(top, DEPTH, Double.POSITIVE_INFINITY), facets));
+		bh.consume(top.topDocs());
+		bh.consume(facets.getClusterCounts());
+		bh.consume(facets.getConferenceCounts());
+	}
+
+	@Benchmark
+	public Map<String, Integer> facets() throws Exception {
+		FacetCollector facets = new FacetCollector();
+		searcher.search(parsed, facets);
+		facets.getConferenceCounts();
+		return facets.getClusterCounts();
+	}
+}
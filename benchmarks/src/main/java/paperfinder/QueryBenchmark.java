@@ -0,0 +1,139 @@
+package paperfinder;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * End to end latency of PaperFinder.doGet over an index of the bundled data set, for a mix of requests like the
+ * search page sends: popular one and two word queries (weighted by repetition), a second page, JSON, a phrase, a
+ * wildcard, a cluster restriction, conference and year filters, a misspelling (which runs the spell checker), a
+ * cursor, per-stage timings and a citation neighborhood.  Each call runs the next request of the mix, round robin.
+ *
+ * The index is built like a default LuceneIndexer run, without stored predictions, so each page of results is
+ * classified live as well.  Runs with and without the result cache (resultCacheMB = 0); with it, the mix is small
+ * enough that every request after the first round is a cache hit, which bounds the cached path.
+ *
+ * Sampled, so the JSON results carry the latency percentiles.  Run with -t to add concurrent clients.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SampleTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class QueryBenchmark {
+	private static final String[][] MIX = {
+		{ "query", "database" },
+		{ "query", "database" },
+		{ "query", "database" },
+		{ "query", "query optimization" },
+		{ "query", "query optimization" },
+		{ "query", "software testing" },
+		{ "query", "software testing" },
+		{ "query", "data", "page", "1" },
+		{ "query", "xml", "format", "json" },
+		{ "query", "\"model checking\"" },
+		{ "query", "stream*" },
+		{ "query", "database", "cluster", "cluster39" },
+		{ "query", "query processing", "conference", "vldb", "year", "2000-2010" },
+		{ "query", "databse" },
+		{ "query", "transaction", "cursor", "*" },
+		{ "query", "requirements engineering", "timings", "true" },
+	};
+
+	@Param({ BenchmarkData.DATA })
+	public String data;
+
+	@Param({ BenchmarkData.MODEL })
+	public String model;
+
+	@Param({ "0", "64" })
+	public String resultCacheMB;
+
+	private Path index;
+	private PaperFinder servlet;
+	private HttpServletRequest[] requests;
+
+	@State(Scope.Thread)
+	public static class Client {
+		final ServletDriver.Response response = new ServletDriver.Response();
+		int next;
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		index = BenchmarkData.buildIndex(data);
+
+		Map<String, String> init = new HashMap<String, String>();
+		init.put("indexPath", index.toString());
+		init.put("classifierPath", model);
+		init.put("resultCacheMB", resultCacheMB);
+		init.put("asyncSearch", "false"); //The benchmark thread is the request thread
+		init.put("indexRefreshSeconds", "0");
+		servlet = ServletDriver.init(new PaperFinder(), init);
+
+		List<String[]> mix = new ArrayList<String[]>();
+		for (String[] request : MIX)
+		{
+			mix.add(request);
+		}
+		mix.add(new String[] { "paper", BenchmarkData.topRankedPaper(data), "hops", "2" });
+
+		requests = new HttpServletRequest[mix.size()];
+		for (int i = 0; i < requests.length; i++)
+		{
+			Map<String, String> parameters = new LinkedHashMap<String, String>();
+			for (int p = 0; p + 1 < mix.get(i).length; p += 2)
+			{
+				parameters.put(mix.get(i)[p], mix.get(i)[p + 1]);
+			}
+			requests[i] = ServletDriver.get(parameters);
+
+			//Every request of the mix must be answered with results (or a suggestion), not an error
+			ServletDriver.Response check = new ServletDriver.Response(true);
+			servlet.service(requests[i], check);
+			check.take();
+			String text = check.text();
+			boolean answered = text.contains("<result>") || text.contains("\"results\":[{") || text.contains("<suggestion>");
+			if (!answered || text.contains("<error>") || text.contains("\"error\":"))
+			{
+				throw new IllegalStateException("Request " + parameters + " failed: " + text);
+			}
+		}
+	}
+
+	@TearDown(Level.Trial)
+	public void tearDown() throws Exception {
+		servlet.destroy();
+		BenchmarkData.delete(index);
+	}
+
+	@Benchmark
+	public long queryMix(Client client) throws Exception {
+		HttpServletRequest request = requests[client.next];
+		client.next = (client.next + 1) % requests.length;
+		servlet.service(request, client.response);
+		return client.response.take();
+	}
+}
@@ -0,0 +1,120 @@
+package paperfinder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Serializing one page of search results, in XML and in JSON, to a stream that only counts bytes.
+ *
+ * The page is the worst case for facets that the data set allows: every cluster (about 400) and every conference,
+ * with their sizes over the whole corpus, as for a query matching everything.  The 10 results are titles of the
+ * data set, taken round robin, so escaping and UTF-8 encoding see real text.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ResponseWriterBenchmark {
+	private static final int PAGE_SIZE = 10;
+
+	@Param({ BenchmarkData.DATA })
+	public String data;
+
+	@Param({ "xml", "json" })
+	public String format;
+
+	private List<String> titles;
+	private final Map<String, Integer> clusterCounts = new HashMap<String, Integer>();
+	private final Map<String, Integer> conferenceCounts = new HashMap<String, Integer>();
+	//Per result values, made up front so that the benchmark itself does not allocate them
+	private final Double[] pageRankComponents = new Double[PAGE_SIZE]; //Boxed, as they come from FieldDoc
+	private final String[] clusters = new String[PAGE_SIZE];
+
+	@State(Scope.Thread)
+	public static class Client {
+		final CountingStream out = new CountingStream();
+		int next;
+	}
+
+	static class CountingStream extends OutputStream {
+		long bytes;
+
+		@Override
+		public void write(int b) {
+			bytes++;
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) {
+			bytes += len;
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		titles = BenchmarkData.titles(data);
+		try (BufferedReader lines = Files.newBufferedReader(Paths.get(data, "clusters.txt"), StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = lines.readLine()) != null)
+			{
+				String cluster = line.substring(line.indexOf('\t') + 1);
+				Integer count = clusterCounts.get(cluster);
+				clusterCounts.put(cluster, (count == null) ? 1 : count + 1);
+			}
+		}
+		conferenceCounts.put("ICSE", 10086);
+		conferenceCounts.put("SIGMOD", 4196);
+		conferenceCounts.put("VLDB", 4324);
+		for (int i = 0; i < PAGE_SIZE; i++)
+		{
+			pageRankComponents[i] = 0.0104604 / (i + 1);
+			clusters[i] = "cluster" + i;
+		}
+	}
+
+	@Benchmark
+	public long writePage(Client client) throws IOException {
+		ResponseWriter out = ResponseWriter.get(format, client.out);
+		out.startSearch();
+		out.total(18606, false);
+		out.pages(0, 1860);
+		out.facets("clusters", "cluster", clusterCounts);
+		out.facets("conferences", "conference", conferenceCounts);
+		out.startResults();
+		for (int i = 0; i < PAGE_SIZE; i++)
+		{
+			String title = titles.get(client.next);
+			client.next = (client.next + 1) % titles.size();
+			out.result(title, "ICSE", pageRankComponents[i], 0.75f, (i % 2 == 0) ? "software" : "data", clusters[i]);
+		}
+		out.endResults();
+		out.endSearch();
+		out.finish();
+		long written = client.out.bytes;
+		client.out.bytes = 0;
+		return written;
+	}
+}
@@ -0,0 +1,199 @@
+package paperfinder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletContext;
+import javax.servlet.ServletException;
+import javax.servlet.ServletOutputStream;
+import javax.servlet.WriteListener;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletRequestWrapper;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpServletResponseWrapper;
+
+/**
+ * Runs a servlet without a container: just enough of ServletConfig, request and response for PaperFinder and
+ * Autocomplete, which only read parameters and write to the output stream.
+ *
+ * Requests and the response are meant to be created once and reused, so that the benchmarks measure the servlet
+ * and not the harness: the methods the servlets call are plain overrides, and the output is counted rather than
+ * kept.  Anything else is answered by a proxy that returns null (or 0 / false).
+ */
+class ServletDriver {
+	private static final InvocationHandler NULLS = new InvocationHandler() {
+		@Override
+		public Object invoke(Object proxy, Method method, Object[] args) {
+			Class<?> type = method.getReturnType();
+			if (type == boolean.class)
+			{
+				return false;
+			}
+			if (type == int.class)
+			{
+				return 0;
+			}
+			if (type == long.class)
+			{
+				return 0L;
+			}
+			return null;
+		}
+	};
+
+	@SuppressWarnings("unchecked")
+	private static <T> T nulls(Class<T> type) {
+		return (T) Proxy.newProxyInstance(ServletDriver.class.getClassLoader(), new Class<?>[] { type }, NULLS);
+	}
+
+	static <S extends HttpServlet> S init(final S servlet, final Map<String, String> initParameters) throws ServletException {
+		//A servlet context that only prints what the servlet logs
+		final ServletContext context = (ServletContext) Proxy.newProxyInstance(ServletDriver.class.getClassLoader(), new Class<?>[] { ServletContext.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+						if (method.getName().equals("log"))
+						{
+							System.out.println(args[0]);
+							if (args.length > 1 && args[1] instanceof Throwable)
+							{
+								((Throwable) args[1]).printStackTrace(System.out);
+							}
+							return null;
+						}
+						return NULLS.invoke(proxy, method, args);
+					}
+				});
+		servlet.init((ServletConfig) Proxy.newProxyInstance(ServletDriver.class.getClassLoader(), new Class<?>[] { ServletConfig.class },
+				new InvocationHandler() {
+					@Override
+					public Object invoke(Object proxy, Method method, Object[] args) {
+						switch (method.getName())
+						{
+						case "getInitParameter":
+							return initParameters.get(args[0]);
+						case "getInitParameterNames":
+							return Collections.enumeration(initParameters.keySet());
+						case "getServletContext":
+							return context;
+						case "getServletName":
+							return servlet.getClass().getSimpleName();
+						default:
+							return null;
+						}
+					}
+				}));
+		return servlet;
+	}
+
+	/** A GET request with fixed parameters */
+	static HttpServletRequest get(final Map<String, String> parameters) {
+		return new HttpServletRequestWrapper(nulls(HttpServletRequest.class)) {
+			@Override
+			public String getMethod() {
+				return "GET";
+			}
+
+			@Override
+			public String getParameter(String name) {
+				return parameters.get(name);
+			}
+
+			@Override
+			public boolean isAsyncSupported() {
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * A response that counts the bytes written and discards them, unless it was created to keep them (to check the
+	 * output during setup).
+	 */
+	static class Response extends HttpServletResponseWrapper {
+		private long bytes;
+		private int status = SC_OK;
+		private final ByteArrayOutputStream kept;
+
+		private final ServletOutputStream out = new ServletOutputStream() {
+			@Override
+			public void write(int b) {
+				bytes++;
+				if (kept != null)
+				{
+					kept.write(b);
+				}
+			}
+
+			@Override
+			public void write(byte[] b, int off, int len) {
+				bytes += len;
+				if (kept != null)
+				{
+					kept.write(b, off, len);
+				}
+			}
+
+			@Override
+			public boolean isReady() {
+				return true;
+			}
+
+			@Override
+			public void setWriteListener(WriteListener listener) {
+			}
+		};
+
+		Response() {
+			this(false);
+		}
+
+		Response(boolean keep) {
+			super(nulls(HttpServletResponse.class));
+			kept = keep ? new ByteArrayOutputStream() : null;
+		}
+
+		@Override
+		public ServletOutputStream getOutputStream() {
+			return out;
+		}
+
+		@Override
+		public void setContentType(String type) {
+		}
+
+		@Override
+		public void setStatus(int status) {
+			this.status = status;
+		}
+
+		@Override
+		public int getStatus() {
+			return status;
+		}
+
+		/** @return the bytes written since the last call, after checking that the request succeeded */
+		long take() throws IOException {
+			if (status != SC_OK)
+			{
+				throw new IOException("Request failed with status " + status);
+			}
+			long written = bytes;
+			bytes = 0;
+			return written;
+		}
+
+		/** @return the output kept so far, as text */
+		String text() {
+			return new String(kept.toByteArray(), StandardCharsets.UTF_8);
+		}
+	}
+}
@@ -0,0 +1,62 @@
+package paperfinder;
+
+import java.util.Map;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletContextHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+/**
+ * PaperFinder in an embedded Jetty, mapped as in WebContent: /PaperFinder, /PaperFinder/stats and /PaperFinder/batch,
+ * with async support.  The servlet is loaded on startup, so starting the server includes PaperFinder.init (opening
+ * and warming the index, loading the classifier), which is timed.
+ */
+class EmbeddedServer {
+	private final Server server;
+	private final ServerConnector connector;
+	private long initNanos;
+
+	/**
+	 * @param port 0 for any free port
+	 * @param initParameters the servlet init parameters, as in web.xml
+	 */
+	EmbeddedServer(int port, Map<String, String> initParameters) {
+		server = new Server();
+		connector = new ServerConnector(server);
+		connector.setHost("127.0.0.1");
+		connector.setPort(port);
+		server.addConnector(connector);
+
+		ServletContextHandler context = new ServletContextHandler(ServletContextHandler.NO_SESSIONS);
+		context.setContextPath("/");
+		ServletHolder holder = new ServletHolder("PaperFinder", PaperFinder.class);
+		holder.setInitParameters(initParameters);
+		holder.setAsyncSupported(true);
+		holder.setInitOrder(0);
+		context.addServlet(holder, "/PaperFinder");
+		context.addServlet(holder, "/PaperFinder/stats");
+		context.addServlet(holder, "/PaperFinder/batch");
+		server.setHandler(context);
+	}
+
+	void start() throws Exception {
+		long start = System.nanoTime();
+		server.start();
+		initNanos = System.nanoTime() - start;
+	}
+
+	void stop() throws Exception {
+		server.stop();
+	}
+
+	/** @return how long starting the server took, most of which is PaperFinder.init */
+	long getInitNanos() {
+		return initNanos;
+	}
+
+	/** @return the URL of the search endpoint */
+	String getUrl() {
+		return "http://127.0.0.1:" + connector.getLocalPort() + "/PaperFinder";
+	}
+}
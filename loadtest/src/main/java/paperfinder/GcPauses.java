@@ -0,0 +1,70 @@
+package paperfinder;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.management.ListenerNotFoundException;
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+import javax.management.openmbean.CompositeData;
+
+import com.sun.management.GarbageCollectionNotificationInfo;
+
+/**
+ * Records the garbage collection pauses of this JVM (and so of the embedded server) as they are reported by the
+ * collectors' MXBeans, into a LatencyHistogram.
+ *
+ * The collectors report durations in whole milliseconds, so shorter pauses are counted as 0ms.  Collectors whose
+ * cycles run concurrently with the application and that report those cycles separately from their pauses (ZGC and
+ * Shenandoah "Cycles", G1 "Concurrent GC" on newer JDKs) are left out, since their cycles do not stop requests.
+ */
+class GcPauses implements NotificationListener {
+	private final List<NotificationEmitter> emitters = new ArrayList<NotificationEmitter>();
+	private volatile LatencyHistogram pauses = new LatencyHistogram();
+
+	GcPauses() {
+		for (GarbageCollectorMXBean collector : ManagementFactory.getGarbageCollectorMXBeans())
+		{
+			String name = collector.getName();
+			if (collector instanceof NotificationEmitter && !name.endsWith("Cycles") && !name.contains("Concurrent"))
+			{
+				((NotificationEmitter) collector).addNotificationListener(this, null, null);
+				emitters.add((NotificationEmitter) collector);
+			}
+		}
+	}
+
+	@Override
+	public void handleNotification(Notification notification, Object handback) {
+		if (notification.getType().equals(GarbageCollectionNotificationInfo.GARBAGE_COLLECTION_NOTIFICATION))
+		{
+			GarbageCollectionNotificationInfo info = GarbageCollectionNotificationInfo.from((CompositeData) notification.getUserData());
+			pauses.record(info.getGcInfo().getDuration() * 1000000L);
+		}
+	}
+
+	/**
+	 * Starts recording into a new histogram.
+	 *
+	 * @return the pauses recorded since the previous reset (or since this was created)
+	 */
+	LatencyHistogram reset() {
+		LatencyHistogram previous = pauses;
+		pauses = new LatencyHistogram();
+		return previous;
+	}
+
+	void close() {
+		for (NotificationEmitter emitter : emitters)
+		{
+			try {
+				emitter.removeNotificationListener(this);
+			} catch (ListenerNotFoundException e) {
+				//Not registered, nothing to remove
+			}
+		}
+	}
+}
@@ -0,0 +1,296 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import luceneindexer.LuceneIndexer;
+
+/**
+ * Load test of PaperFinder: starts it in an embedded Jetty over an index of the bundled data set, sends it a
+ * workload at one or more arrival rates in turn, and reports the time init took and, per rate, the throughput,
+ * the latency percentiles (p50, p90, p99, p999, overall and per kind of search) and the GC pauses.
+ *
+ * Usage, from the repository root (after mvn package):
+ *
+ *   java -jar loadtest/target/loadtest.jar [options]
+ *
+ *   -docs dir           data set to index (default LuceneIndexer/sigmod_vldb_icse/); the index is built into a
+ *                       temporary directory like a default LuceneIndexer run, and deleted afterwards
+ *   -index dir          use this index instead of building one
+ *   -classifier file    classifier model for the servlet (default WebContent/classifier.bin)
+ *   -log file           replay the searches of a query log (see QueryLogWorkload) instead of the synthetic mix
+ *   -mix k=w,...        weights of the synthetic mix (default terms=70,cluster=15,deep=10,misspelled=5, see
+ *                       SyntheticWorkload)
+ *   -zipf s             exponent of the term popularity of the synthetic mix (default 1.0)
+ *   -rate r[,r...]      arrival rates to run, in requests per second (default 50)
+ *   -warmup seconds     before each rate, not counted (default 10)
+ *   -duration seconds   counted, per rate (default 30)
+ *   -connections n      most requests in flight at once (default 64)
+ *   -port n             port of the server (default 0, any free port); /PaperFinder/stats can be watched meanwhile
+ *   -seed n             of the synthetic mix and of the arrival times (default 1)
+ *   -init name=value    a servlet init parameter, as in web.xml (repeatable), e.g. -init searchThreads=8
+ *
+ * Stepping through rates (e.g. -rate 25,50,100,200) shows how doGet scales: throughput follows the rate until the
+ * server saturates, after which latency grows with the backlog, or requests are rejected once the search pool is full.
+ * The load generator runs in the same JVM as the server and shares its CPUs and GC, so leave it some headroom.
+ */
+public class LoadTest {
+	private static final String DEFAULT_MIX = "terms=70,cluster=15,deep=10,misspelled=5";
+
+	public static void main(String[] args) throws Exception {
+		String docs = "LuceneIndexer/sigmod_vldb_icse/";
+		String index = null;
+		String classifier = "WebContent/classifier.bin";
+		String log = null;
+		String mix = DEFAULT_MIX;
+		double exponent = 1.0;
+		List<Double> rates = new ArrayList<Double>();
+		int warmupSeconds = 10;
+		int durationSeconds = 30;
+		int connections = 64;
+		int port = 0;
+		long seed = 1;
+		Map<String, String> initParameters = new LinkedHashMap<String, String>();
+		for (int i = 0; i < args.length; i++)
+		{
+			if (args[i].equals("-docs") && i + 1 < args.length)
+			{
+				docs = args[++i];
+			}
+			else if (args[i].equals("-index") && i + 1 < args.length)
+			{
+				index = args[++i];
+			}
+			else if (args[i].equals("-classifier") && i + 1 < args.length)
+			{
+				classifier = args[++i];
+			}
+			else if (args[i].equals("-log") && i + 1 < args.length)
+			{
+				log = args[++i];
+			}
+			else if (args[i].equals("-mix") && i + 1 < args.length)
+			{
+				mix = args[++i];
+			}
+			else if (args[i].equals("-zipf") && i + 1 < args.length)
+			{
+				exponent = Double.parseDouble(args[++i]);
+			}
+			else if (args[i].equals("-rate") && i + 1 < args.length)
+			{
+				for (String rate : args[++i].split(","))
+				{
+					rates.add(Double.parseDouble(rate));
+				}
+			}
+			else if (args[i].equals("-warmup") && i + 1 < args.length)
+			{
+				warmupSeconds = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-duration") && i + 1 < args.length)
+			{
+				durationSeconds = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-connections") && i + 1 < args.length)
+			{
+				connections = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-port") && i + 1 < args.length)
+			{
+				port = Integer.parseInt(args[++i]);
+			}
+			else if (args[i].equals("-seed") && i + 1 < args.length)
+			{
+				seed = Long.parseLong(args[++i]);
+			}
+			else if (args[i].equals("-init") && i + 1 < args.length && args[i + 1].indexOf('=') > 0)
+			{
+				String parameter = args[++i];
+				initParameters.put(parameter.substring(0, parameter.indexOf('=')), parameter.substring(parameter.indexOf('=') + 1));
+			}
+			else
+			{
+				System.out.println("Unknown or incomplete option " + args[i] + "; see paperfinder.LoadTest for the options");
+				System.exit(1);
+			}
+		}
+		if (rates.isEmpty())
+		{
+			rates.add(50.0);
+		}
+		for (double rate : rates)
+		{
+			if (rate <= 0)
+			{
+				System.out.println("Rates must be positive");
+				System.exit(1);
+			}
+		}
+
+		//HttpURLConnection keeps only 5 idle connections per server alive by default; the others would be reopened
+		if (System.getProperty("http.maxConnections") == null)
+		{
+			System.setProperty("http.maxConnections", Integer.toString(connections));
+		}
+
+		Path indexPath;
+		Path builtIndex = null;
+		if (index != null)
+		{
+			indexPath = Paths.get(index);
+		}
+		else
+		{
+			builtIndex = Files.createTempDirectory("paperfinder-loadtest-index");
+			indexPath = builtIndex;
+			long start = System.nanoTime();
+			LuceneIndexer.main(new String[] { "-docs", docs, "-index", builtIndex.toString() });
+			System.out.println("Indexed " + docs + " in " + (System.nanoTime() - start) / 1000000 + "ms");
+		}
+
+		EmbeddedServer server = null;
+		GcPauses gc = new GcPauses();
+		try {
+			Workload workload;
+			if (log != null)
+			{
+				workload = new QueryLogWorkload(Paths.get(log));
+			}
+			else
+			{
+				workload = new SyntheticWorkload(indexPath, parseMix(mix), exponent, seed);
+			}
+
+			Map<String, String> init = new LinkedHashMap<String, String>();
+			init.put("indexPath", indexPath.toString());
+			init.put("classifierPath", classifier);
+			init.put("indexRefreshSeconds", "0"); //The index does not change during the test
+			init.putAll(initParameters);
+			server = new EmbeddedServer(port, init);
+			gc.reset();
+			server.start();
+			LatencyHistogram initPauses = gc.reset();
+			String probe = get(server.getUrl() + "?query=data");
+			if (probe.contains("Initialization failed"))
+			{
+				System.out.println("PaperFinder failed to initialize (see its output above)");
+				return;
+			}
+
+			System.out.println();
+			System.out.println("Server: " + server.getUrl() + ", init parameters " + init);
+			System.out.println(String.format("Init: %.0fms (including %d GC pauses, %.0fms)", millis(server.getInitNanos()),
+					initPauses.snapshot().count, millis(initPauses.getSum())));
+			System.out.println("Workload: " + workload.describe());
+			System.out.println("Open model, Poisson arrivals; at most " + connections + " requests in flight; " + warmupSeconds + "s warmup and "
+					+ durationSeconds + "s measured per rate; latencies in ms from the scheduled arrival");
+
+			OpenLoadDriver driver = new OpenLoadDriver(server.getUrl(), workload, connections, seed);
+			for (double rate : rates)
+			{
+				OpenLoadDriver.Result result = driver.run(rate, warmupSeconds * 1000000000L, durationSeconds * 1000000000L, gc);
+				report(result);
+			}
+		} finally {
+			gc.close();
+			if (server != null)
+			{
+				server.stop();
+			}
+			if (builtIndex != null)
+			{
+				delete(builtIndex);
+			}
+		}
+	}
+
+	private static Map<String, Integer> parseMix(String mix) {
+		Map<String, Integer> weights = new LinkedHashMap<String, Integer>();
+		for (String entry : mix.split(","))
+		{
+			int equals = entry.indexOf('=');
+			if (equals < 0)
+			{
+				throw new IllegalArgumentException("Expected kind=weight in the mix, not " + entry);
+			}
+			weights.put(entry.substring(0, equals).trim(), Integer.parseInt(entry.substring(equals + 1).trim()));
+		}
+		return weights;
+	}
+
+	private static void report(OpenLoadDriver.Result result) {
+		System.out.println();
+		System.out.println(String.format("Rate %.1f/s: %d sent, %d completed, %.1f/s throughput; %d ok, %d errors, %d rejected (503), %d failed; "
+				+ "backlog up to %d", result.rate, result.sent, result.completed(), result.throughput(), result.ok.get(), result.errors.get(),
+				result.rejected.get(), result.failed.get(), result.maxBacklog));
+		System.out.println(String.format("  %-12s %8s %9s %9s %9s %9s %9s %9s", "", "count", "mean", "p50", "p90", "p99", "p999", "max"));
+		row("all", result.latency);
+		for (Map.Entry<String, LatencyHistogram> kind : result.latencyByKind.entrySet())
+		{
+			row(kind.getKey(), kind.getValue());
+		}
+		LatencyHistogram.Snapshot pauses = result.gcPauses.snapshot();
+		System.out.println(String.format("  GC: %d pauses, %.0fms in total (%.2f%% of the run), p99 %.0fms, max %.0fms", pauses.count,
+				millis(result.gcPauses.getSum()), 100.0 * result.gcPauses.getSum() / result.durationNanos, millis(pauses.percentile(0.99)),
+				millis(result.gcPauses.getMax())));
+	}
+
+	private static void row(String name, LatencyHistogram histogram) {
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		double mean = (snapshot.count == 0) ? 0 : millis(histogram.getSum()) / snapshot.count;
+		System.out.println(String.format("  %-12s %8d %9.2f %9.2f %9.2f %9.2f %9.2f %9.2f", name, snapshot.count, mean,
+				millis(snapshot.percentile(0.5)), millis(snapshot.percentile(0.9)), millis(snapshot.percentile(0.99)),
+				millis(snapshot.percentile(0.999)), millis(histogram.getMax())));
+	}
+
+	private static double millis(long nanos) {
+		return nanos / 1e6;
+	}
+
+	private static String get(String url) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) new URL(url).openConnection();
+		InputStream in = (connection.getResponseCode() >= 400) ? connection.getErrorStream() : connection.getInputStream();
+		try {
+			byte[] buffer = new byte[8192];
+			StringBuilder text = new StringBuilder();
+			int n;
+			while ((n = in.read(buffer)) > 0)
+			{
+				text.append(new String(buffer, 0, n, StandardCharsets.UTF_8));
+			}
+			return text.toString();
+		} finally {
+			in.close();
+		}
+	}
+
+	private static void delete(Path dir) throws IOException {
+		Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+			@Override
+			public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+				Files.delete(file);
+				return FileVisitResult.CONTINUE;
+			}
+
+			@Override
+			public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+				Files.delete(dir);
+				return FileVisitResult.CONTINUE;
+			}
+		});
+	}
+}
@@ -0,0 +1,190 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Sends the requests of a Workload over HTTP at a given rate, in an open model: requests arrive at random times
+ * (a Poisson process, with exponential gaps between them) whether or not the earlier ones were answered, the way
+ * independent users arrive.  A closed model, where each client waits for its answer before sending the next request,
+ * would slow down along with the server and hide the queueing that real users see.
+ *
+ * Each request's latency is measured from the time it was scheduled to arrive, not from when it was sent, so time
+ * spent waiting for a free connection counts too (no coordinated omission).  At most "connections" requests are in
+ * flight; the others wait in an unbounded queue, whose longest length is reported as the backlog.
+ */
+class OpenLoadDriver {
+	private final String url;
+	private final Workload workload;
+	private final int connections;
+	private final Random random;
+
+	OpenLoadDriver(String url, Workload workload, int connections, long seed) {
+		this.url = url;
+		this.workload = workload;
+		this.connections = connections;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * The outcome of one run at one rate.  Only the requests scheduled after the warmup are counted.
+	 */
+	static class Result {
+		final double rate; //Offered, per second
+		final long durationNanos;
+		final LatencyHistogram latency = new LatencyHistogram();
+		final Map<String, LatencyHistogram> latencyByKind = new LinkedHashMap<String, LatencyHistogram>();
+		final AtomicLong ok = new AtomicLong();
+		final AtomicLong errors = new AtomicLong(); //Answered with an error, e.g. a timeout or an unparsable query
+		final AtomicLong rejected = new AtomicLong(); //503, the server's search pool was full
+		final AtomicLong failed = new AtomicLong(); //Other statuses, or no answer at all
+		final AtomicLong lastCompletion = new AtomicLong();
+		long sent;
+		int maxBacklog;
+		long measureStart;
+		LatencyHistogram gcPauses;
+
+		Result(double rate, long durationNanos, Iterable<String> kinds) {
+			this.rate = rate;
+			this.durationNanos = durationNanos;
+			for (String kind : kinds)
+			{
+				latencyByKind.put(kind, new LatencyHistogram());
+			}
+		}
+
+		long completed() {
+			return ok.get() + errors.get() + rejected.get() + failed.get();
+		}
+
+		/** @return completed requests per second, until the last of them completed (or the end of the run, if later) */
+		double throughput() {
+			long elapsed = Math.max(lastCompletion.get() - measureStart, durationNanos);
+			return completed() * 1e9 / elapsed;
+		}
+	}
+
+	/**
+	 * Runs the workload at the given rate for warmup and then duration nanoseconds, and waits for all the requests
+	 * to be answered.  GC pauses are recorded from the end of the warmup.
+	 */
+	Result run(double rate, long warmupNanos, long durationNanos, GcPauses gc) throws InterruptedException {
+		final Result result = new Result(rate, durationNanos, workload.kinds());
+		final AtomicInteger threads = new AtomicInteger();
+		ThreadPoolExecutor pool = new ThreadPoolExecutor(connections, connections, 0, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+				new ThreadFactory() {
+					@Override
+					public Thread newThread(Runnable r) {
+						Thread t = new Thread(r, "loadtest-client-" + threads.incrementAndGet());
+						t.setDaemon(true);
+						return t;
+					}
+				});
+
+		long start = System.nanoTime();
+		result.measureStart = start + warmupNanos;
+		long end = result.measureStart + durationNanos;
+		boolean measuring = false;
+		for (long next = start; next < end; next += (long) (-Math.log(1 - random.nextDouble()) / rate * 1e9))
+		{
+			long now;
+			while ((now = System.nanoTime()) < next)
+			{
+				LockSupport.parkNanos(next - now);
+			}
+			if (!measuring && next >= result.measureStart)
+			{
+				measuring = true;
+				gc.reset();
+			}
+			final Workload.Request request = workload.next();
+			final long scheduled = next;
+			final Result counted = measuring ? result : null;
+			if (measuring)
+			{
+				result.sent++;
+				result.maxBacklog = Math.max(result.maxBacklog, pool.getQueue().size());
+			}
+			pool.execute(new Runnable() {
+				@Override
+				public void run() {
+					send(request, scheduled, counted);
+				}
+			});
+		}
+		pool.shutdown();
+		pool.awaitTermination(10, TimeUnit.MINUTES);
+		result.gcPauses = gc.reset();
+		return result;
+	}
+
+	/**
+	 * Sends one request and records its outcome in result, unless that is null (during the warmup).
+	 */
+	private void send(Workload.Request request, long scheduled, Result result) {
+		int status;
+		String body;
+		try {
+			HttpURLConnection connection = (HttpURLConnection) new URL(url + "?" + request.queryString).openConnection();
+			connection.setConnectTimeout(10000);
+			connection.setReadTimeout(60000);
+			status = connection.getResponseCode();
+			//Read to the end, so the connection is kept alive for the next request
+			InputStream in = (status >= 400) ? connection.getErrorStream() : connection.getInputStream();
+			body = (in == null) ? "" : read(in);
+		} catch (IOException e) {
+			status = -1;
+			body = "";
+		}
+		long latency = System.nanoTime() - scheduled;
+		if (result == null)
+		{
+			return;
+		}
+		if (status == 200)
+		{
+			boolean error = body.contains("<error>") || body.contains("\"error\":");
+			(error ? result.errors : result.ok).incrementAndGet();
+		}
+		else
+		{
+			(status == 503 ? result.rejected : result.failed).incrementAndGet();
+		}
+		result.latency.record(latency);
+		result.latencyByKind.get(request.kind).record(latency);
+		long now = System.nanoTime();
+		long last = result.lastCompletion.get();
+		while (now > last && !result.lastCompletion.compareAndSet(last, now))
+		{
+			last = result.lastCompletion.get();
+		}
+	}
+
+	private static String read(InputStream in) throws IOException {
+		try {
+			byte[] buffer = new byte[8192];
+			StringBuilder text = new StringBuilder();
+			int n;
+			while ((n = in.read(buffer)) > 0)
+			{
+				text.append(new String(buffer, 0, n, StandardCharsets.ISO_8859_1)); //Only ASCII markers are looked for
+			}
+			return text.toString();
+		} finally {
+			in.close();
+		}
+	}
+}
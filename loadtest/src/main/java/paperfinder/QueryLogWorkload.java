@@ -0,0 +1,144 @@
+package paperfinder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Replays the searches of a query log in order, starting over at the end.  Each line is one of:
+ *
+ *   an access log line (Tomcat's, or any with the request line quoted), e.g.
+ *     127.0.0.1 - - [17/Oct/2026:10:00:00 +0000] "GET /PaperFinder?query=data&amp;page=1 HTTP/1.1" 200 5120
+ *     Only GET requests of /PaperFinder are replayed.
+ *   a request URI or query string, e.g. /PaperFinder?query=data&amp;page=1 or query=data&amp;page=1, as in a batch
+ *     (spaces are taken for %20)
+ *
+ * Blank lines and lines starting with '#' are skipped.  The parameters are sent as logged (URL encoded).  The times
+ * of the log are not replayed: arrivals follow the rate of the load test, so the same log can be run at any rate.
+ *
+ * Each search is reported under a kind read from its parameters: "paper" (citation mode), "deep" (page 5 or later,
+ * or a resumed cursor), "filtered" (cluster, conference or year), or else "query".
+ */
+class QueryLogWorkload extends Workload {
+	static final String[] KINDS = { "query", "filtered", "deep", "paper" };
+	private static final Pattern REQUEST_LINE = Pattern.compile("\"([A-Z]+) (\\S+)[^\"]*\"");
+
+	private final Path log;
+	private final List<Request> requests = new ArrayList<Request>();
+	private int skipped;
+	private int next;
+
+	QueryLogWorkload(Path log) throws IOException {
+		this.log = log;
+		try (BufferedReader lines = Files.newBufferedReader(log, StandardCharsets.UTF_8)) {
+			String line;
+			while ((line = lines.readLine()) != null)
+			{
+				line = line.trim();
+				if (line.isEmpty() || line.startsWith("#"))
+				{
+					continue;
+				}
+				String queryString = queryString(line);
+				if (queryString == null)
+				{
+					skipped++;
+				}
+				else
+				{
+					requests.add(new Request(kind(queryString), queryString));
+				}
+			}
+		}
+		if (requests.isEmpty())
+		{
+			throw new IllegalArgumentException("No searches in " + log);
+		}
+	}
+
+	/** @return the query string of a search, or null if the line is no search */
+	private static String queryString(String line) {
+		String uri = line;
+		Matcher request = REQUEST_LINE.matcher(line);
+		if (request.find())
+		{
+			if (!request.group(1).equals("GET"))
+			{
+				return null;
+			}
+			uri = request.group(2);
+		}
+		int question = uri.indexOf('?');
+		if (question >= 0)
+		{
+			String path = uri.substring(0, question);
+			if (!path.endsWith("/PaperFinder"))
+			{
+				return null;
+			}
+			uri = uri.substring(question + 1);
+		}
+		else if (uri.startsWith("/"))
+		{
+			return null;
+		}
+		uri = uri.replace(" ", "%20"); //Written by hand
+		return (parameter(uri, "query") != null || parameter(uri, "paper") != null) ? uri : null;
+	}
+
+	/** @return the raw (still encoded) value of a parameter, or null */
+	private static String parameter(String queryString, String name) {
+		for (String pair : queryString.split("&"))
+		{
+			if (pair.startsWith(name + "="))
+			{
+				return pair.substring(name.length() + 1);
+			}
+		}
+		return null;
+	}
+
+	private static String kind(String queryString) {
+		if (parameter(queryString, "paper") != null)
+		{
+			return "paper";
+		}
+		String page = parameter(queryString, "page");
+		String cursor = parameter(queryString, "cursor");
+		if ((page != null && page.matches("\\d+") && page.length() < 9 && Integer.parseInt(page) >= 5)
+				|| (cursor != null && !cursor.isEmpty() && !cursor.equals("*") && !cursor.equals("%2A")))
+		{
+			return "deep";
+		}
+		if (parameter(queryString, "cluster") != null || parameter(queryString, "conference") != null || parameter(queryString, "year") != null)
+		{
+			return "filtered";
+		}
+		return "query";
+	}
+
+	@Override
+	Request next() {
+		Request request = requests.get(next);
+		next = (next + 1) % requests.size();
+		return request;
+	}
+
+	@Override
+	List<String> kinds() {
+		return Collections.unmodifiableList(Arrays.asList(KINDS));
+	}
+
+	@Override
+	String describe() {
+		return "query log " + log + " (" + requests.size() + " searches" + ((skipped > 0) ? ", " + skipped + " other lines skipped" : "") + ")";
+	}
+}
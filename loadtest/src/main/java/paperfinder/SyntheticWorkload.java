@@ -0,0 +1,311 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URLEncoder;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.MultiDocValues;
+import org.apache.lucene.index.MultiFields;
+import org.apache.lucene.index.PostingsEnum;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.index.Terms;
+import org.apache.lucene.index.TermsEnum;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * A synthetic mix of searches drawn from the terms of an index, with popularity following a Zipf distribution:
+ * the title terms are ranked by how many papers they occur in, and the k-th is drawn with a probability in
+ * proportion to 1 / k^s.  The kinds of searches, mixed by weight:
+ *
+ *   terms       one title term, or two (a third of the time)
+ *   cluster     a term, drilled down to one of the clusters among its hits, picked in proportion to its facet count
+ *   deep        a page from the 6th to the last of a term with at least that many pages
+ *   misspelled  a term with one edit (a swap, a deletion or a substitution) that is no term of the index, so it has
+ *               no hits and runs the spell checker
+ *
+ * Everything is read from the index up front, and the draws come from a seeded Random, so the same seed gives the
+ * same sequence of requests over the same index.
+ */
+class SyntheticWorkload extends Workload {
+	static final String[] KINDS = { "terms", "cluster", "deep", "misspelled" };
+	private static final int VOCABULARY = 5000; //Most frequent title terms drawn from
+	private static final int DEEP_PAGE = 5; //0-based, the first page deep paging starts at
+	private static final int PAGE_SIZE = 10; //As PaperFinder's
+
+	private final Random random;
+	private final double exponent;
+	private final int[] weights; //Per kind, in the order of KINDS
+	private final int totalWeight;
+
+	private final String[] terms; //By decreasing document frequency
+	private final int[] docFreqs;
+	private final String[][] clusters; //Per term, the cluster of each of its papers that has one
+	private final double[] termCdf;
+	private final int[] deepTerms; //Terms with pages beyond DEEP_PAGE, most frequent first
+	private final double[] deepCdf;
+	private final Set<String> allTerms = new HashSet<String>(); //Every title term, to tell misspellings apart
+
+	/**
+	 * @param mix the weight of each kind of search; kinds left out are not sent
+	 * @param exponent s of the Zipf distribution; 0 is uniform, higher values favor the popular terms more
+	 */
+	SyntheticWorkload(Path index, Map<String, Integer> mix, double exponent, long seed) throws IOException {
+		this.random = new Random(seed);
+		this.exponent = exponent;
+		weights = new int[KINDS.length];
+		int total = 0;
+		for (int k = 0; k < KINDS.length; k++)
+		{
+			Integer weight = mix.get(KINDS[k]);
+			weights[k] = (weight == null) ? 0 : weight;
+			total += weights[k];
+		}
+		for (String kind : mix.keySet())
+		{
+			if (!Arrays.asList(KINDS).contains(kind))
+			{
+				throw new IllegalArgumentException("Unknown kind of search " + kind + ", expected one of " + Arrays.toString(KINDS));
+			}
+		}
+		if (total <= 0)
+		{
+			throw new IllegalArgumentException("The mix has no searches");
+		}
+		totalWeight = total;
+
+		try (DirectoryReader reader = DirectoryReader.open(FSDirectory.open(index))) {
+			final List<BytesRef> candidates = new ArrayList<BytesRef>();
+			final List<Integer> frequencies = new ArrayList<Integer>();
+			Terms titleTerms = MultiFields.getTerms(reader, "title");
+			if (titleTerms == null)
+			{
+				throw new IllegalArgumentException("The index has no titles: " + index);
+			}
+			TermsEnum termsEnum = titleTerms.iterator();
+			for (BytesRef term = termsEnum.next(); term != null; term = termsEnum.next())
+			{
+				String text = term.utf8ToString();
+				allTerms.add(text);
+				//Words only, that more than one paper shares
+				if (termsEnum.docFreq() > 1 && text.length() > 2 && text.matches("[a-z]+"))
+				{
+					candidates.add(BytesRef.deepCopyOf(term));
+					frequencies.add(termsEnum.docFreq());
+				}
+			}
+
+			Integer[] order = new Integer[candidates.size()];
+			for (int i = 0; i < order.length; i++)
+			{
+				order[i] = i;
+			}
+			Arrays.sort(order, new Comparator<Integer>() {
+				@Override
+				public int compare(Integer a, Integer b) {
+					int byFrequency = Integer.compare(frequencies.get(b), frequencies.get(a));
+					return (byFrequency != 0) ? byFrequency : candidates.get(a).compareTo(candidates.get(b));
+				}
+			});
+
+			int size = Math.min(order.length, VOCABULARY);
+			if (size == 0)
+			{
+				throw new IllegalArgumentException("The index has no title terms to draw from: " + index);
+			}
+			terms = new String[size];
+			docFreqs = new int[size];
+			clusters = new String[size][];
+			SortedDocValues clusterValues = MultiDocValues.getSortedValues(reader, "cluster");
+			PostingsEnum postings = null;
+			for (int i = 0; i < size; i++)
+			{
+				BytesRef term = candidates.get(order[i]);
+				terms[i] = term.utf8ToString();
+				docFreqs[i] = frequencies.get(order[i]);
+				List<String> termClusters = new ArrayList<String>();
+				if (clusterValues != null && termsEnum.seekExact(term))
+				{
+					postings = termsEnum.postings(postings, PostingsEnum.NONE);
+					for (int doc = postings.nextDoc(); doc != DocIdSetIterator.NO_MORE_DOCS; doc = postings.nextDoc())
+					{
+						int ord = clusterValues.getOrd(doc);
+						if (ord >= 0)
+						{
+							termClusters.add(clusterValues.lookupOrd(ord).utf8ToString());
+						}
+					}
+				}
+				clusters[i] = termClusters.toArray(new String[termClusters.size()]);
+			}
+		}
+		termCdf = zipf(terms.length, exponent);
+
+		List<Integer> deep = new ArrayList<Integer>();
+		for (int i = 0; i < terms.length; i++)
+		{
+			if (docFreqs[i] > (DEEP_PAGE + 1) * PAGE_SIZE)
+			{
+				deep.add(i);
+			}
+		}
+		deepTerms = new int[deep.size()];
+		for (int i = 0; i < deepTerms.length; i++)
+		{
+			deepTerms[i] = deep.get(i);
+		}
+		deepCdf = zipf(deepTerms.length, exponent);
+		if (weights[2] > 0 && deepTerms.length == 0)
+		{
+			throw new IllegalArgumentException("No term of the index has more than " + (DEEP_PAGE + 1) + " pages, for deep searches");
+		}
+	}
+
+	/** @return the cumulative distribution of ranks 1 to n */
+	private static double[] zipf(int n, double exponent) {
+		double[] cdf = new double[n];
+		double sum = 0;
+		for (int k = 0; k < n; k++)
+		{
+			sum += 1 / Math.pow(k + 1, exponent);
+			cdf[k] = sum;
+		}
+		return cdf;
+	}
+
+	private static int draw(double[] cdf, Random random) {
+		int i = Arrays.binarySearch(cdf, random.nextDouble() * cdf[cdf.length - 1]);
+		return Math.min((i < 0) ? -i - 1 : i, cdf.length - 1);
+	}
+
+	private int drawTerm() {
+		return draw(termCdf, random);
+	}
+
+	@Override
+	Request next() {
+		int pick = random.nextInt(totalWeight);
+		int kind = 0;
+		while (pick >= weights[kind])
+		{
+			pick -= weights[kind++];
+		}
+		switch (kind)
+		{
+		case 0:
+		{
+			String query = terms[drawTerm()];
+			if (random.nextInt(3) == 0)
+			{
+				query += " " + terms[drawTerm()];
+			}
+			return new Request(KINDS[kind], "query=" + encode(query));
+		}
+		case 1:
+		{
+			int term = drawTerm();
+			for (int tries = 0; clusters[term].length == 0 && tries < 100; tries++)
+			{
+				term = drawTerm();
+			}
+			String query = "query=" + encode(terms[term]);
+			if (clusters[term].length > 0)
+			{
+				query += "&cluster=" + encode(clusters[term][random.nextInt(clusters[term].length)]);
+			}
+			return new Request(KINDS[kind], query);
+		}
+		case 2:
+		{
+			int term = deepTerms[draw(deepCdf, random)];
+			int lastPage = (docFreqs[term] - 1) / PAGE_SIZE;
+			int page = DEEP_PAGE + random.nextInt(lastPage - DEEP_PAGE + 1);
+			return new Request(KINDS[kind], "query=" + encode(terms[term]) + "&page=" + page);
+		}
+		default:
+			return new Request(KINDS[kind], "query=" + encode(misspell()));
+		}
+	}
+
+	/** @return a popular term of at least 5 letters with one edit, that is no term of the index */
+	private String misspell() {
+		String misspelled = null;
+		for (int tries = 0; tries < 100; tries++)
+		{
+			String term = terms[drawTerm()];
+			if (term.length() < 5)
+			{
+				continue;
+			}
+			char[] letters = term.toCharArray();
+			int at = 1 + random.nextInt(letters.length - 2); //The first letter is rarely the one mistyped
+			switch (random.nextInt(3))
+			{
+			case 0:
+				char swapped = letters[at];
+				letters[at] = letters[at + 1];
+				letters[at + 1] = swapped;
+				misspelled = new String(letters);
+				break;
+			case 1:
+				misspelled = term.substring(0, at) + term.substring(at + 1);
+				break;
+			default:
+				letters[at] = (char) ('a' + random.nextInt(26));
+				misspelled = new String(letters);
+			}
+			if (!allTerms.contains(misspelled))
+			{
+				return misspelled;
+			}
+		}
+		return (misspelled != null) ? misspelled + "qx" : "qxzzy";
+	}
+
+	private static String encode(String value) {
+		try {
+			return URLEncoder.encode(value, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new AssertionError(e);
+		}
+	}
+
+	@Override
+	List<String> kinds() {
+		List<String> kinds = new ArrayList<String>();
+		for (int k = 0; k < KINDS.length; k++)
+		{
+			if (weights[k] > 0)
+			{
+				kinds.add(KINDS[k]);
+			}
+		}
+		return Collections.unmodifiableList(kinds);
+	}
+
+	@Override
+	String describe() {
+		Map<String, Integer> mix = new LinkedHashMap<String, Integer>();
+		for (int k = 0; k < KINDS.length; k++)
+		{
+			if (weights[k] > 0)
+			{
+				mix.put(KINDS[k], weights[k]);
+			}
+		}
+		return "synthetic mix " + mix + " over the " + terms.length + " most frequent title terms, Zipf s=" + exponent;
+	}
+}
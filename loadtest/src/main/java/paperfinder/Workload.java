@@ -0,0 +1,31 @@
+package paperfinder;
+
+import java.util.List;
+
+/**
+ * The requests a load test sends, one after the other.  Only the dispatching thread asks for them, so
+ * implementations need not be thread safe.
+ */
+abstract class Workload {
+	/**
+	 * One GET request: its query string (URL encoded, without the '?') and its kind, under which its latency is
+	 * also reported.
+	 */
+	static class Request {
+		final String kind;
+		final String queryString;
+
+		Request(String kind, String queryString) {
+			this.kind = kind;
+			this.queryString = queryString;
+		}
+	}
+
+	abstract Request next();
+
+	/** @return the kinds of the requests, in the order to report them */
+	abstract List<String> kinds();
+
+	/** @return a one line description for the report */
+	abstract String describe();
+}
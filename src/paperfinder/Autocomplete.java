@@ -0,0 +1,138 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.attribute.FileTime;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import javax.servlet.ServletConfig;
+import javax.servlet.ServletException;
+import javax.servlet.annotation.WebServlet;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * Servlet implementation class Autocomplete
+ *
+ * Title completions for the search box, meant to be called on every keystroke.  A lookup is a walk of the in-memory
+ * TitleSuggester built by LuceneIndexer; it does not touch the index or the search pool, and runs on the request thread.
+ */
+@WebServlet(urlPatterns = { "/Autocomplete" })
+public class Autocomplete extends HttpServlet {
+	private static final long serialVersionUID = 1L;
+	private static final int defaultCount = 10;
+	private static final int maxCount = 50;
+
+	private volatile TitleSuggester suggester; //Replaced as a whole when the indexer writes a new file
+	private Path suggesterPath;
+	private FileTime loadedTime;
+	private ScheduledExecutorService reloadExecutor;
+
+	/**
+	 * Init parameters: "indexPath" (as for PaperFinder; the suggester file is stored in the index directory) and
+	 * "indexRefreshSeconds" (how often to check for a rebuilt suggester, 0 disables).
+	 */
+	@Override
+	public void init(ServletConfig config) throws ServletException {
+		super.init(config);
+		String index = (getInitParameter("indexPath") != null) ? getInitParameter("indexPath") : "sigmod_vldb_icse_index";
+		suggesterPath = Paths.get(index, TitleSuggester.FILE_NAME);
+		try {
+			reload();
+		} catch (IOException e) {
+			//Answer with 503 until a reload finds the file
+			log("Loading the title suggester failed", e);
+		}
+
+		int refreshSeconds = (getInitParameter("indexRefreshSeconds") != null) ? Integer.parseInt(getInitParameter("indexRefreshSeconds")) : 10;
+		if (refreshSeconds > 0)
+		{
+			reloadExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+				@Override
+				public Thread newThread(Runnable r) {
+					Thread t = new Thread(r, "Autocomplete-reload");
+					t.setDaemon(true);
+					return t;
+				}
+			});
+			reloadExecutor.scheduleWithFixedDelay(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						reload();
+					} catch (Exception e) {
+						log("Reloading the title suggester failed", e);
+					}
+				}
+			}, refreshSeconds, refreshSeconds, TimeUnit.SECONDS);
+		}
+	}
+
+	/** Loads the suggester file if it changed since it was last loaded */
+	private void reload() throws IOException {
+		FileTime modified = Files.getLastModifiedTime(suggesterPath);
+		if (modified.equals(loadedTime))
+		{
+			return;
+		}
+		long start = System.nanoTime();
+		TitleSuggester loaded = TitleSuggester.load(suggesterPath);
+		suggester = loaded;
+		loadedTime = modified;
+		log("Loaded " + loaded.getCount() + " title completions (" + loaded.ramBytesUsed() / 1024 + "KB) in "
+				+ (System.nanoTime() - start) / 1000000 + "ms");
+	}
+
+	@Override
+	public void destroy() {
+		if (reloadExecutor != null) {
+			reloadExecutor.shutdownNow();
+		}
+		super.destroy();
+	}
+
+	/**
+	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
+	 *
+	 * Accepts "query", the text typed so far, and optionally "count" (number of completions, default 10, at most 50)
+	 * and "format" ("json" for a JSON response instead of XML).
+	 */
+	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		ResponseWriter out = ResponseWriter.get(request.getParameter("format"), response.getOutputStream());
+		response.setContentType(out.getContentType());
+
+		TitleSuggester current = suggester;
+		if (current == null) {
+			response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			out.fatalError("Completions are not available; check that the indexer built " + TitleSuggester.FILE_NAME);
+			out.finish();
+			return;
+		}
+
+		int count = defaultCount;
+		String paramCount = request.getParameter("count");
+		if (paramCount != null) {
+			try {
+				count = Math.max(1, Math.min(Integer.parseInt(paramCount), maxCount));
+			} catch (NumberFormatException e) {
+				//Keep the default
+			}
+		}
+
+		out.startCompletions();
+		String paramQuery = request.getParameter("query");
+		if (paramQuery != null && !paramQuery.trim().isEmpty()) {
+			for (String title : current.complete(paramQuery, count)) {
+				out.completion(title);
+			}
+		}
+		out.endCompletions();
+		out.finish();
+	}
+}
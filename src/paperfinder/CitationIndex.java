@@ -0,0 +1,242 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.index.SortedNumericDocValues;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * The citation graph between the documents of one reader, in compressed sparse row form, both ways: the documents
+ * cited by doc d are cites[citesStart[d] .. citesStart[d + 1]), and those citing it are likewise in citedBy.
+ *
+ * Built from the "paperID" and "citations" doc values that LuceneIndexer writes (or, for indexes written before
+ * those, from the stored fields), once per searcher.  Citations of papers outside the index are dropped, since
+ * there is no document to return for them.  Doc ids are those of the reader, so an instance belongs to one
+ * PaperSearcher.  Immutable once built, so it is safe to share between request threads.
+ */
+class CitationIndex {
+	private final long[] paperIDs; //Paper ids of the live documents, ascending
+	private final int[] docs; //docs[i] is the document of paperIDs[i]
+	private final int[] citesStart;
+	private final int[] cites;
+	private final int[] citedByStart;
+	private final int[] citedBy;
+
+	private CitationIndex(long[] paperIDs, int[] docs, int[] citesStart, int[] cites, int[] citedByStart, int[] citedBy) {
+		this.paperIDs = paperIDs;
+		this.docs = docs;
+		this.citesStart = citesStart;
+		this.cites = cites;
+		this.citedByStart = citedByStart;
+		this.citedBy = citedBy;
+	}
+
+	static CitationIndex build(IndexReader reader) throws IOException {
+		int maxDoc = reader.maxDoc();
+		long[] idOfDoc = new long[maxDoc];
+		boolean[] live = new boolean[maxDoc];
+		int liveCount = 0;
+		//Citations as (citing doc, cited paper id) pairs, until every paper id has its document
+		int[] citing = new int[1 << 12];
+		long[] cited = new long[1 << 12];
+		int edges = 0;
+
+		for (LeafReaderContext context : reader.leaves())
+		{
+			LeafReader leaf = context.reader();
+			Bits liveDocs = leaf.getLiveDocs();
+			boolean storedFallback = !hasDocValues(leaf, "paperID", DocValuesType.NUMERIC);
+			NumericDocValues ids = storedFallback ? null : leaf.getNumericDocValues("paperID");
+			SortedNumericDocValues citations = hasDocValues(leaf, "citations", DocValuesType.SORTED_NUMERIC)
+					? leaf.getSortedNumericDocValues("citations") : null;
+			for (int d = 0; d < leaf.maxDoc(); d++)
+			{
+				if (liveDocs != null && !liveDocs.get(d))
+				{
+					continue;
+				}
+				int doc = context.docBase + d;
+				live[doc] = true;
+				liveCount++;
+				if (storedFallback)
+				{
+					Document stored = leaf.document(d);
+					idOfDoc[doc] = stored.getField("paperID").numericValue().longValue();
+					String list = stored.get("citations");
+					if (list != null && !list.isEmpty())
+					{
+						for (String id : list.split(";"))
+						{
+							if (edges == citing.length)
+							{
+								citing = Arrays.copyOf(citing, 2 * edges);
+								cited = Arrays.copyOf(cited, 2 * edges);
+							}
+							citing[edges] = doc;
+							cited[edges++] = Long.parseLong(id);
+						}
+					}
+					continue;
+				}
+				idOfDoc[doc] = ids.get(d);
+				if (citations != null)
+				{
+					citations.setDocument(d);
+					for (int i = 0; i < citations.count(); i++)
+					{
+						if (edges == citing.length)
+						{
+							citing = Arrays.copyOf(citing, 2 * edges);
+							cited = Arrays.copyOf(cited, 2 * edges);
+						}
+						citing[edges] = doc;
+						cited[edges++] = citations.valueAt(i);
+					}
+				}
+			}
+		}
+
+		//Paper id to document: the live documents sorted by paper id, searched by bisection
+		long[] keys = new long[liveCount];
+		int n = 0;
+		for (int doc = 0; doc < maxDoc; doc++)
+		{
+			if (live[doc])
+			{
+				keys[n++] = idOfDoc[doc];
+			}
+		}
+		Arrays.sort(keys);
+		int[] docs = new int[liveCount];
+		Arrays.fill(docs, -1);
+		for (int doc = 0; doc < maxDoc; doc++)
+		{
+			if (live[doc])
+			{
+				//A paper indexed twice has two slots; take the first free one
+				int i = Arrays.binarySearch(keys, idOfDoc[doc]);
+				while (i > 0 && keys[i - 1] == idOfDoc[doc])
+				{
+					i--;
+				}
+				while (docs[i] != -1)
+				{
+					i++;
+				}
+				docs[i] = doc;
+			}
+		}
+
+		//Resolve the cited ids, then lay the edges out both ways with a counting sort
+		int[] target = new int[edges];
+		int[] citesStart = new int[maxDoc + 1];
+		int[] citedByStart = new int[maxDoc + 1];
+		int resolved = 0;
+		for (int e = 0; e < edges; e++)
+		{
+			int i = Arrays.binarySearch(keys, cited[e]);
+			target[e] = (i >= 0) ? docs[i] : -1;
+			if (i >= 0)
+			{
+				citesStart[citing[e] + 1]++;
+				citedByStart[target[e] + 1]++;
+				resolved++;
+			}
+		}
+		for (int doc = 0; doc < maxDoc; doc++)
+		{
+			citesStart[doc + 1] += citesStart[doc];
+			citedByStart[doc + 1] += citedByStart[doc];
+		}
+		int[] cites = new int[resolved];
+		int[] citedBy = new int[resolved];
+		int[] citesFill = Arrays.copyOf(citesStart, maxDoc);
+		int[] citedByFill = Arrays.copyOf(citedByStart, maxDoc);
+		for (int e = 0; e < edges; e++)
+		{
+			if (target[e] >= 0)
+			{
+				cites[citesFill[citing[e]]++] = target[e];
+				citedBy[citedByFill[target[e]]++] = citing[e];
+			}
+		}
+		return new CitationIndex(keys, docs, citesStart, cites, citedByStart, citedBy);
+	}
+
+	private static boolean hasDocValues(LeafReader reader, String field, DocValuesType type) {
+		FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+		return info != null && info.getDocValuesType() == type;
+	}
+
+	/**
+	 * @return the document of a paper, or -1 if it is not in the index
+	 */
+	int doc(long paperID) {
+		int i = Arrays.binarySearch(paperIDs, paperID);
+		return (i >= 0) ? docs[i] : -1;
+	}
+
+	int edgeCount() {
+		return cites.length;
+	}
+
+	/**
+	 * Returns the documents within the given number of citation hops of a document (itself excluded), following the
+	 * papers it cites, the papers citing it, or both.
+	 *
+	 * @return a bit set over the doc ids of the reader
+	 */
+	FixedBitSet neighborhood(int doc, int hops, boolean followCites, boolean followCitedBy) {
+		FixedBitSet seen = new FixedBitSet(citesStart.length - 1);
+		seen.set(doc);
+		int[] frontier = { doc };
+		int frontierSize = 1;
+		for (int hop = 0; hop < hops && frontierSize > 0; hop++)
+		{
+			int[] next = new int[16];
+			int nextSize = 0;
+			for (int f = 0; f < frontierSize; f++)
+			{
+				int d = frontier[f];
+				for (int pass = 0; pass < 2; pass++)
+				{
+					if ((pass == 0) ? !followCites : !followCitedBy)
+					{
+						continue;
+					}
+					int[] start = (pass == 0) ? citesStart : citedByStart;
+					int[] targets = (pass == 0) ? cites : citedBy;
+					for (int i = start[d]; i < start[d + 1]; i++)
+					{
+						int t = targets[i];
+						if (!seen.getAndSet(t))
+						{
+							if (nextSize == next.length)
+							{
+								next = Arrays.copyOf(next, 2 * nextSize);
+							}
+							next[nextSize++] = t;
+						}
+					}
+				}
+			}
+			frontier = next;
+			frontierSize = nextSize;
+		}
+		seen.clear(doc);
+		return seen;
+	}
+
+	long ramBytesUsed() {
+		return 8L * paperIDs.length + 4L * (docs.length + citesStart.length + cites.length + citedByStart.length + citedBy.length);
+	}
+}
@@ -0,0 +1,87 @@
+package paperfinder;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.search.ConstantScoreScorer;
+import org.apache.lucene.search.ConstantScoreWeight;
+import org.apache.lucene.search.DocIdSetIterator;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.Scorer;
+import org.apache.lucene.search.Weight;
+import org.apache.lucene.util.FixedBitSet;
+
+/**
+ * Matches a precomputed set of documents (e.g. a citation neighborhood from CitationIndex) with a constant score,
+ * so that it can be collected, sorted and faceted like any parsed query.
+ *
+ * The set holds doc ids of one reader, so the query must only be run against the searcher it was computed for.
+ * For the same reason it is only equal to itself: two sets over different readers may look alike.
+ */
+class DocSetQuery extends Query {
+	private final FixedBitSet docs;
+	private final String description;
+
+	DocSetQuery(FixedBitSet docs, String description) {
+		this.docs = docs;
+		this.description = description;
+	}
+
+	@Override
+	public Weight createWeight(IndexSearcher searcher, boolean needsScores) throws IOException {
+		return new ConstantScoreWeight(this) {
+			@Override
+			public Scorer scorer(LeafReaderContext context) throws IOException {
+				final int docBase = context.docBase;
+				final int maxDoc = context.reader().maxDoc();
+				if (docBase >= docs.length() || docs.nextSetBit(docBase) >= docBase + maxDoc)
+				{
+					return null;
+				}
+				//Walks the set bits that fall within this segment, as segment doc ids
+				DocIdSetIterator iterator = new DocIdSetIterator() {
+					private int doc = -1;
+
+					@Override
+					public int docID() {
+						return doc;
+					}
+
+					@Override
+					public int nextDoc() {
+						return advance(doc + 1);
+					}
+
+					@Override
+					public int advance(int target) {
+						int next = (docBase + target < docs.length()) ? docs.nextSetBit(docBase + target) : NO_MORE_DOCS;
+						doc = (next == NO_MORE_DOCS || next >= docBase + maxDoc) ? NO_MORE_DOCS : next - docBase;
+						return doc;
+					}
+
+					@Override
+					public long cost() {
+						return maxDoc;
+					}
+				};
+				return new ConstantScoreScorer(this, score(), iterator);
+			}
+		};
+	}
+
+	@Override
+	public String toString(String field) {
+		return description;
+	}
+
+	@Override
+	public boolean equals(Object other) {
+		return this == other;
+	}
+
+	@Override
+	public int hashCode() {
+		return System.identityHashCode(this);
+	}
+}
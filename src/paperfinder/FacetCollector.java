@@ -0,0 +1,158 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.DocValuesType;
+import org.apache.lucene.index.FieldInfo;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.SortedDocValues;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.SimpleCollector;
+
+/**
+ * Counts matching documents per cluster and per conference while the query is being collected, so that the
+ * facet counts cover every hit even though only the top of the ranking is kept.
+ *
+ * Counting can be limited to a number of matches: past it, the collector stops (CollectionTerminatedException), so
+ * that a search whose top hits are known early need not visit the rest of its matches just to count them.  The
+ * total and the facet counts then cover the first matches in index order, which in an index stored in rank order
+ * (see RankSort) are the best ranked ones.
+ *
+ * Counting is done on the SortedDocValues ordinals of the "cluster" and "conference" fields into a plain int[]
+ * per segment; ordinals are only resolved to names once per segment, for the ordinals that were actually hit.
+ * No stored documents are loaded, except for segments written before LuceneIndexer added the doc values.
+ */
+class FacetCollector extends SimpleCollector {
+	private static final Set<String> facetFields = new HashSet<String>(Arrays.asList("cluster", "conference"));
+
+	private final Map<String, Integer> clusterCounts = new HashMap<String, Integer>();
+	private final Map<String, Integer> conferenceCounts = new HashMap<String, Integer>();
+
+	private final int limit;
+	private int totalHits;
+	private boolean truncated;
+
+	private LeafReader reader;
+	private boolean storedFallback;
+	private SortedDocValues clusterValues;
+	private SortedDocValues conferenceValues;
+	//Per segment counts, indexed by ordinal + 1 so that documents without a value land in slot 0
+	private int[] clusterOrdCounts;
+	private int[] conferenceOrdCounts;
+
+	/** Counts every match */
+	FacetCollector() {
+		this(Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param limit the most matches to count
+	 */
+	FacetCollector(int limit) {
+		this.limit = limit;
+	}
+
+	@Override
+	protected void doSetNextReader(LeafReaderContext context) throws IOException {
+		flush();
+		reader = context.reader();
+		storedFallback = !hasSortedDocValues(reader, "cluster") || !hasSortedDocValues(reader, "conference");
+		if (!storedFallback)
+		{
+			clusterValues = DocValues.getSorted(reader, "cluster");
+			conferenceValues = DocValues.getSorted(reader, "conference");
+			clusterOrdCounts = new int[clusterValues.getValueCount() + 1];
+			conferenceOrdCounts = new int[conferenceValues.getValueCount() + 1];
+		}
+	}
+
+	private static boolean hasSortedDocValues(LeafReader reader, String field) {
+		FieldInfo info = reader.getFieldInfos().fieldInfo(field);
+		return info != null && info.getDocValuesType() == DocValuesType.SORTED;
+	}
+
+	@Override
+	public void collect(int doc) throws IOException {
+		if (totalHits == limit)
+		{
+			truncated = true;
+			throw new CollectionTerminatedException();
+		}
+		totalHits++;
+		if (storedFallback)
+		{
+			Document stored = reader.document(doc, facetFields);
+			increment(clusterCounts, stored.get("cluster"), 1);
+			increment(conferenceCounts, stored.get("conference"), 1);
+			return;
+		}
+		clusterOrdCounts[clusterValues.getOrd(doc) + 1]++;
+		conferenceOrdCounts[conferenceValues.getOrd(doc) + 1]++;
+	}
+
+	/**
+	 * Resolves the ordinal counts of the current segment into the name -> count maps.
+	 */
+	private void flush() {
+		if (clusterOrdCounts != null)
+		{
+			flush(clusterValues, clusterOrdCounts, clusterCounts);
+			flush(conferenceValues, conferenceOrdCounts, conferenceCounts);
+			clusterOrdCounts = null;
+			conferenceOrdCounts = null;
+		}
+	}
+
+	private static void flush(SortedDocValues values, int[] ordCounts, Map<String, Integer> counts) {
+		for (int i = 0; i < ordCounts.length; i++)
+		{
+			if (ordCounts[i] != 0)
+			{
+				//Documents without a value are reported under a null name, as before
+				String name = (i == 0) ? null : values.lookupOrd(i - 1).utf8ToString();
+				increment(counts, name, ordCounts[i]);
+			}
+		}
+	}
+
+	private static void increment(Map<String, Integer> counts, String name, int by) {
+		Integer count = counts.get(name);
+		counts.put(name, (count == null) ? by : count + by);
+	}
+
+	@Override
+	public boolean needsScores() {
+		return false;
+	}
+
+	/**
+	 * @return the number of matches, all of which are counted even when the top hits collector stopped early (up to
+	 * the limit, see isTruncated)
+	 */
+	public int getTotalHits() {
+		return totalHits;
+	}
+
+	/** @return whether there were more matches than the limit, so that the counts are lower bounds */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public Map<String, Integer> getClusterCounts() {
+		flush();
+		return clusterCounts;
+	}
+
+	public Map<String, Integer> getConferenceCounts() {
+		flush();
+		return conferenceCounts;
+	}
+}
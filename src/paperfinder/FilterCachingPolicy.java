@@ -0,0 +1,32 @@
+package paperfinder;
+
+import java.io.IOException;
+
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.UsageTrackingQueryCachingPolicy;
+
+/**
+ * Decides which non-scoring queries the searchers' query cache keeps the doc ids of.
+ *
+ * The filters of SearchFilters are cached on first use.  There are few of them (some hundreds of clusters, three
+ * conferences, a handful of popular year ranges) and drill-downs repeat them constantly, whereas Lucene's default
+ * policy never caches term queries and waits for several uses of anything else.  All other queries, such as the
+ * citation sets of DocSetQuery, are left to that default policy.
+ */
+class FilterCachingPolicy implements QueryCachingPolicy {
+	private final UsageTrackingQueryCachingPolicy others = new UsageTrackingQueryCachingPolicy();
+
+	@Override
+	public void onUse(Query query) {
+		if (!SearchFilters.isFilter(query))
+		{
+			others.onUse(query);
+		}
+	}
+
+	@Override
+	public boolean shouldCache(Query query) throws IOException {
+		return SearchFilters.isFilter(query) || others.shouldCache(query);
+	}
+}
@@ -0,0 +1,282 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+
+/**
+ * Writes the search response as JSON, with the same content as the XML schema:
+ *
+ * {"total":n, "totallowerbound":true, "suggestion":"...", "pages":{"current":n,"last":n}, "clusters":[{"name":"...","size":n}],
+ *  "conferences":[...], "results":[{"title":"...","conference":"...","pagerankraw":x,"relevance":x,
+ *  "predicted":"...","cluster":"..."}], "cursor":"...", "timings":{...}, "error":"..."}
+ *
+ * Members that the XML response would omit are omitted here too.  Numbers JSON cannot represent (NaN and the
+ * infinities, which the XML response writes as DecimalFormat does) are written as null.
+ *
+ * A batch is {"batch":[{"id":"...", "total":n, ...}, ...]}, one object per search.
+ *
+ * Completions (the Autocomplete servlet) are {"completions":["...", ...]}.
+ */
+class JsonResponseWriter extends ResponseWriter {
+	private boolean needComma;
+
+	@Override
+	protected void reset(OutputStream out) {
+		super.reset(out);
+		needComma = false;
+	}
+
+	@Override
+	public String getContentType() {
+		return "application/json;charset=UTF-8";
+	}
+
+	private void separator() throws IOException {
+		if (needComma)
+		{
+			writeByte(',');
+		}
+		needComma = true;
+	}
+
+	private void name(String name) throws IOException {
+		separator();
+		writeByte('"');
+		writeAscii(name);
+		writeAscii("\":");
+	}
+
+	private void string(String value) throws IOException {
+		if (value == null)
+		{
+			writeAscii("null");
+			return;
+		}
+		writeByte('"');
+		writeText(value);
+		writeByte('"');
+	}
+
+	private void number(double value) throws IOException {
+		if (Double.isNaN(value) || Double.isInfinite(value))
+		{
+			writeAscii("null");
+			return;
+		}
+		writeDecimal(value);
+	}
+
+	@Override
+	public void fatalError(String message) throws IOException {
+		writeByte('{');
+		needComma = false;
+		error(message);
+		writeByte('}');
+	}
+
+	@Override
+	public void startSearch() throws IOException {
+		writeByte('{');
+		needComma = false;
+	}
+
+	@Override
+	public void error(String message) throws IOException {
+		name("error");
+		string(message);
+	}
+
+	@Override
+	public void total(long total, boolean lowerBound) throws IOException {
+		name("total");
+		writeLong(total);
+		if (lowerBound)
+		{
+			name("totallowerbound");
+			writeAscii("true");
+		}
+	}
+
+	@Override
+	public void suggestion(String suggestion) throws IOException {
+		name("suggestion");
+		string(suggestion);
+	}
+
+	@Override
+	public void pages(int current, int last) throws IOException {
+		name("pages");
+		writeAscii("{\"current\":");
+		writeLong(current);
+		writeAscii(",\"last\":");
+		writeLong(last);
+		writeByte('}');
+	}
+
+	@Override
+	public void facets(String listName, String itemName, Map<String, Integer> counts) throws IOException {
+		name(listName);
+		writeByte('[');
+		boolean first = true;
+		for (Map.Entry<String, Integer> entry : counts.entrySet())
+		{
+			if (!first)
+			{
+				writeByte(',');
+			}
+			first = false;
+			writeAscii("{\"name\":");
+			string(entry.getKey());
+			writeAscii(",\"size\":");
+			writeLong(entry.getValue());
+			writeByte('}');
+		}
+		writeByte(']');
+	}
+
+	@Override
+	public void startResults() throws IOException {
+		name("results");
+		writeByte('[');
+		needComma = false;
+	}
+
+	@Override
+	public void result(String title, String conference, Double pageRankComponent, float relevance, String predicted, String cluster) throws IOException {
+		separator();
+		writeByte('{');
+		needComma = false;
+		if (title != null)
+		{
+			name("title");
+			string(title);
+		}
+		if (conference != null)
+		{
+			name("conference");
+			string(conference);
+		}
+		if (pageRankComponent != null)
+		{
+			name("pagerankraw");
+			number(pageRankComponent);
+		}
+		name("relevance");
+		number(relevance);
+		name("predicted");
+		string(predicted);
+		name("cluster");
+		string(cluster);
+		writeByte('}');
+		needComma = true;
+	}
+
+	@Override
+	public void endResults() throws IOException {
+		writeByte(']');
+		needComma = true;
+	}
+
+	@Override
+	public void cursor(String cursor) throws IOException {
+		name("cursor");
+		string(cursor);
+	}
+
+	@Override
+	public void timings(StageTimer timer) throws IOException {
+		name("timings");
+		writeByte('{');
+		for (StageTimer.Stage stage : StageTimer.Stage.values())
+		{
+			writeByte('"');
+			writeAscii(stage.label);
+			writeAscii("\":");
+			number(timer.getNanos(stage) / 1e6);
+			writeByte(',');
+		}
+		writeAscii("\"total\":");
+		number(timer.getElapsedNanos() / 1e6);
+		writeByte('}');
+	}
+
+	@Override
+	public void endSearch() throws IOException {
+		writeByte('}');
+		needComma = true; //Before the next search of a batch
+	}
+
+	@Override
+	public void startBatch() throws IOException {
+		writeAscii("{\"batch\":[");
+		needComma = false;
+	}
+
+	@Override
+	public void startSearch(String id) throws IOException {
+		separator();
+		writeByte('{');
+		needComma = false;
+		name("id");
+		string(id);
+	}
+
+	@Override
+	public void endBatch() throws IOException {
+		writeAscii("]}");
+	}
+
+	@Override
+	public void startCompletions() throws IOException {
+		writeAscii("{\"completions\":[");
+		needComma = false;
+	}
+
+	@Override
+	public void completion(String title) throws IOException {
+		separator();
+		string(title);
+	}
+
+	@Override
+	public void endCompletions() throws IOException {
+		writeAscii("]}");
+	}
+
+	@Override
+	protected void writeEscaped(int cp) throws IOException {
+		switch (cp) {
+		case '"':
+			writeAscii("\\\"");
+			return;
+		case '\\':
+			writeAscii("\\\\");
+			return;
+		case '\n':
+			writeAscii("\\n");
+			return;
+		case '\r':
+			writeAscii("\\r");
+			return;
+		case '\t':
+			writeAscii("\\t");
+			return;
+		default:
+			break;
+		}
+		//Control characters must be escaped; line and paragraph separators are valid JSON but break JavaScript string literals
+		if (cp < 0x20 || cp == 0x2028 || cp == 0x2029)
+		{
+			writeAscii("\\u");
+			writeByte(HEX[cp >> 12 & 0xF]);
+			writeByte(HEX[cp >> 8 & 0xF]);
+			writeByte(HEX[cp >> 4 & 0xF]);
+			writeByte(HEX[cp & 0xF]);
+			return;
+		}
+		writeCodePoint(cp);
+	}
+
+	private static final char[] HEX = "0123456789abcdef".toCharArray();
+}
@@ -0,0 +1,116 @@
+package paperfinder;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A histogram of latencies in nanoseconds, in the manner of HdrHistogram, that any number of threads can record
+ * into at once.
+ *
+ * Buckets are linear within each power of two, 32 per power, so a bucket is never wider than 1/32 of the values in
+ * it: percentiles are accurate to about 3%, over the whole range from 1ns to 2^42ns (about 73 minutes; longer values
+ * are counted in the last bucket).  Recording computes the bucket from the position of the highest bit and
+ * increments it atomically, without locks or allocation.  Percentiles are read from a snapshot of the counts, which
+ * may miss or include requests recorded meanwhile, but never blocks them.
+ */
+class LatencyHistogram {
+	private static final int SUB_BUCKET_BITS = 5;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+	private static final int MAX_SHIFT = 36; //Values below 2^(MAX_SHIFT + SUB_BUCKET_BITS + 1)
+	private static final int BUCKETS = (MAX_SHIFT + 2) * SUB_BUCKETS;
+
+	private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+	private final AtomicLong sum = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	void record(long nanos) {
+		if (nanos < 0)
+		{
+			nanos = 0;
+		}
+		counts.incrementAndGet(bucket(nanos));
+		sum.addAndGet(nanos);
+		long current = max.get();
+		while (nanos > current && !max.compareAndSet(current, nanos))
+		{
+			current = max.get();
+		}
+	}
+
+	/**
+	 * Values below 2 * SUB_BUCKETS have a bucket each; above that, the bucket is given by the power of two of the
+	 * value (the shift) and the SUB_BUCKET_BITS bits below its highest bit.
+	 */
+	private static int bucket(long value) {
+		int shift = 63 - Long.numberOfLeadingZeros(value | SUB_BUCKETS) - SUB_BUCKET_BITS;
+		if (shift > MAX_SHIFT)
+		{
+			return BUCKETS - 1;
+		}
+		return shift * SUB_BUCKETS + (int) (value >>> shift);
+	}
+
+	/** @return the largest value that falls into a bucket */
+	private static long highestValue(int bucket) {
+		int shift = Math.max(bucket / SUB_BUCKETS - 1, 0);
+		long subBucket = bucket - shift * SUB_BUCKETS;
+		return ((subBucket + 1) << shift) - 1;
+	}
+
+	long getSum() {
+		return sum.get();
+	}
+
+	long getMax() {
+		return max.get();
+	}
+
+	Snapshot snapshot() {
+		long[] copy = new long[BUCKETS];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			copy[i] = counts.get(i);
+			count += copy[i];
+		}
+		return new Snapshot(copy, count, max.get());
+	}
+
+	/**
+	 * The counts at one point in time.
+	 */
+	static class Snapshot {
+		private final long[] counts;
+		final long count;
+		private final long max;
+
+		private Snapshot(long[] counts, long count, long max) {
+			this.counts = counts;
+			this.count = count;
+			this.max = max;
+		}
+
+		/**
+		 * @return the value below or at which the given fraction (0 to 1) of the recorded values fall, in
+		 * nanoseconds, or 0 if nothing was recorded
+		 */
+		long percentile(double fraction) {
+			if (count == 0)
+			{
+				return 0;
+			}
+			long rank = Math.max(1, (long) Math.ceil(fraction * count));
+			long seen = 0;
+			for (int i = 0; i < counts.length; i++)
+			{
+				seen += counts[i];
+				if (seen >= rank)
+				{
+					//The top of the bucket, but never above what was actually recorded
+					return Math.min(highestValue(i), max);
+				}
+			}
+			return max;
+		}
+	}
+}
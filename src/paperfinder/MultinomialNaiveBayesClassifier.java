@@ -0,0 +1,475 @@
+package paperfinder;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Multinomial Naive Bayes classifier used to predict the conference of a paper from its title.
+ *
+ * The model is held in a single binary image (see the layout below) containing an open-addressing
+ * term -> index hash table and a term-major matrix of log-probabilities, so that adding the contribution
+ * of one term to every class is a single sequential run over memory.  The image is either built on the heap
+ * from the text format, or memory-mapped directly from a binary model file written by {@link #convert},
+ * in which case loading is independent of the model size and the pages are shared between processes.
+ */
+public class MultinomialNaiveBayesClassifier {
+
+	//Binary model layout (little endian):
+	/*
+	 * int magic, int version, int N, int C, int precision (4 or 8 bytes per weight),
+	 * int table capacity, int term bytes length, int class name bytes length
+	 * double[C] priors
+	 * class names, UTF-8, '\n' separated
+	 * int[capacity] hash slots (term index + 1, 0 = empty) -- 4 byte aligned
+	 * int[N + 1] term byte offsets
+	 * term bytes, UTF-8
+	 * weights[N][C], term-major, float32 or float64 -- 8 byte aligned
+	 */
+	private static final int MAGIC = 0x424E4650; //"PFNB"
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 32;
+
+	/**
+	 * Loads a classifier from either the text format or the binary format, detected from the first bytes of the file.
+	 * Binary models are memory-mapped rather than read.
+	 */
+	public MultinomialNaiveBayesClassifier(Path path) throws IOException
+	{
+		ByteBuffer image;
+		if (isBinaryModel(path))
+		{
+			try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+				image = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+			}
+		}
+		else
+		{
+			image = parseText(path, 8);
+		}
+		attach(image);
+	}
+
+	private static boolean isBinaryModel(Path path) throws IOException
+	{
+		try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+			ByteBuffer head = ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN);
+			while (head.hasRemaining() && channel.read(head) >= 0) {
+			}
+			return head.position() == 4 && head.getInt(0) == MAGIC;
+		}
+	}
+
+	/**
+	 * Converts a text model into the binary format.
+	 *
+	 * @param precision 4 to store the weights as float32 (half the size, predictions may differ on near ties), 8 for float64
+	 */
+	public static void convert(Path textModel, Path binaryModel, int precision) throws IOException
+	{
+		ByteBuffer image = parseText(textModel, precision);
+		try (FileChannel channel = FileChannel.open(binaryModel, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			while (image.hasRemaining())
+			{
+				channel.write(image);
+			}
+		}
+	}
+
+	/**
+	 * Usage: MultinomialNaiveBayesClassifier classifier.dat classifier.bin [float32|float64]
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		if (args.length < 2)
+		{
+			System.out.println("Usage: MultinomialNaiveBayesClassifier <text model> <binary model> [float32|float64]");
+			return;
+		}
+		int precision = (args.length > 2 && args[2].equals("float32")) ? 4 : 8;
+		convert(Paths.get(args[0]), Paths.get(args[1]), precision);
+		System.out.println("Wrote " + Files.size(Paths.get(args[1])) + " bytes to " + args[1]);
+	}
+
+	/**
+	 * Parses the text format into a heap-backed binary image.
+	 */
+	private static ByteBuffer parseText(Path path, int precision) throws IOException
+	{
+		//Load classifier information from file
+
+        BufferedReader stream = new BufferedReader(new InputStreamReader(Files.newInputStream(path)));
+
+        //File format:
+        /*
+         * Line: N (integer) -- number of terms
+         * Line: C (integer) -- number of classes
+         * Line(N): terms
+         * Line(C): class names
+         * Line: priors[1..N] -- prior probabilities, space delimited (pre logged)
+         * Line--onwards: condProb[C][t] -- condProbs of classes, one per line (pre logged)
+         */
+
+        try {
+	        String N_raw = stream.readLine();
+	        int N = Integer.parseInt(N_raw);
+	        String C_raw = stream.readLine();
+	        int C = Integer.parseInt(C_raw);
+
+	        String[] V = new String[N];
+	        String[] classNames = new String[C];
+	        double[] prior = new double[C];
+	        double[] weights = new double[N * C];
+
+	        for (int i = 0; i < N; i++)
+	        {
+	        	String v_raw = stream.readLine();
+	        	V[i] = v_raw;
+	        }
+
+	        for (int i = 0; i < C; i++)
+	        {
+	        	String c_raw = stream.readLine();
+	        	classNames[i] = (c_raw);
+	        }
+
+	        String[] priors_raw = stream.readLine().split("\\s");
+	        for (int i = 0; i < C; i++)
+	        {
+	        	prior[i] = Double.parseDouble(priors_raw[i]);
+	        }
+
+	        //The file is class-major; transpose into the term-major layout used for scoring
+	        for (int i = 0; i < C; i++)
+	        {
+	        	String[] condProb_raw = stream.readLine().split("\\s");
+	            for (int j = 0; j < N; j++)
+	            {
+	            	weights[j * C + i] = Double.parseDouble(condProb_raw[j]);
+	            }
+	        }
+
+	        return buildImage(V, classNames, prior, weights, precision);
+        } finally {
+        	stream.close();
+        }
+	}
+
+	private static ByteBuffer buildImage(String[] V, String[] classNames, double[] prior, double[] weights, int precision)
+	{
+		int N = V.length;
+		int C = classNames.length;
+
+		byte[][] terms = new byte[N][];
+		int termBytesLength = 0;
+		for (int i = 0; i < N; i++)
+		{
+			terms[i] = V[i].getBytes(StandardCharsets.UTF_8);
+			termBytesLength += terms[i].length;
+		}
+		byte[] names = String.join("\n", classNames).getBytes(StandardCharsets.UTF_8);
+
+		//Keep the load factor at or below 0.5 so that probe sequences stay short
+		int capacity = 1;
+		while (capacity < N * 2)
+		{
+			capacity <<= 1;
+		}
+
+		int slotsOffset = align(HEADER_SIZE + 8 * C + names.length, 4);
+		int offsetsOffset = slotsOffset + 4 * capacity;
+		int termBytesOffset = offsetsOffset + 4 * (N + 1);
+		int weightsOffset = align(termBytesOffset + termBytesLength, 8);
+		int size = weightsOffset + precision * N * C;
+
+		ByteBuffer image = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+		image.putInt(MAGIC).putInt(VERSION).putInt(N).putInt(C).putInt(precision)
+			.putInt(capacity).putInt(termBytesLength).putInt(names.length);
+		for (int i = 0; i < C; i++)
+		{
+			image.putDouble(prior[i]);
+		}
+		image.put(names);
+
+		image.position(termBytesOffset);
+		for (int i = 0; i < N; i++)
+		{
+			image.putInt(offsetsOffset + 4 * i, image.position() - termBytesOffset);
+			image.put(terms[i]);
+		}
+		image.putInt(offsetsOffset + 4 * N, termBytesLength);
+
+		image.position(weightsOffset);
+		for (int i = 0; i < N * C; i++)
+		{
+			if (precision == 4)
+			{
+				image.putFloat((float) weights[i]);
+			}
+			else
+			{
+				image.putDouble(weights[i]);
+			}
+		}
+
+		int mask = capacity - 1;
+		for (int i = 0; i < N; i++)
+		{
+			int h = 0;
+			for (int k = 0; k < V[i].length(); k++)
+			{
+				h = 31 * h + V[i].charAt(k);
+			}
+
+			int slot = mix(h) & mask;
+			while (true)
+			{
+				int existing = image.getInt(slotsOffset + 4 * slot) - 1;
+				if (existing < 0)
+				{
+					image.putInt(slotsOffset + 4 * slot, i + 1);
+					break;
+				}
+				if (V[existing].equals(V[i]))
+				{
+					//Duplicate term: the first occurrence wins, as with the old linear scan
+					break;
+				}
+				slot = (slot + 1) & mask;
+			}
+		}
+
+		image.clear();
+		return image;
+	}
+
+	private static int align(int offset, int alignment)
+	{
+		return (offset + alignment - 1) & -alignment;
+	}
+
+	/**
+	 * Sets up views over the sections of a binary image.  Only the header and class names are decoded;
+	 * everything else is read in place.
+	 */
+	private void attach(ByteBuffer image) throws IOException
+	{
+		image.order(ByteOrder.LITTLE_ENDIAN);
+		if (image.getInt(0) != MAGIC || image.getInt(4) != VERSION)
+		{
+			throw new IOException("Unsupported classifier model format");
+		}
+		N = image.getInt(8);
+		C = image.getInt(12);
+		precision = image.getInt(16);
+		int capacity = image.getInt(20);
+		int termBytesLength = image.getInt(24);
+		int namesLength = image.getInt(28);
+
+		prior = new double[C];
+		for (int i = 0; i < C; i++)
+		{
+			prior[i] = image.getDouble(HEADER_SIZE + 8 * i);
+		}
+		byte[] names = new byte[namesLength];
+		ByteBuffer namesView = image.duplicate();
+		namesView.position(HEADER_SIZE + 8 * C);
+		namesView.get(names);
+		classNames = new String(names, StandardCharsets.UTF_8).split("\n", -1);
+
+		int slotsOffset = align(HEADER_SIZE + 8 * C + namesLength, 4);
+		int offsetsOffset = slotsOffset + 4 * capacity;
+		int termBytesOffset = offsetsOffset + 4 * (N + 1);
+		int weightsOffset = align(termBytesOffset + termBytesLength, 8);
+
+		mask = capacity - 1;
+		slots = section(image, slotsOffset, 4 * capacity).asIntBuffer();
+		termOffsets = section(image, offsetsOffset, 4 * (N + 1)).asIntBuffer();
+		termBytes = section(image, termBytesOffset, termBytesLength);
+		if (precision == 4)
+		{
+			floatWeights = section(image, weightsOffset, 4 * N * C).asFloatBuffer();
+		}
+		else
+		{
+			doubleWeights = section(image, weightsOffset, 8 * N * C).asDoubleBuffer();
+		}
+	}
+
+	private static ByteBuffer section(ByteBuffer image, int offset, int length)
+	{
+		ByteBuffer view = image.duplicate();
+		view.position(offset);
+		view.limit(offset + length);
+		return view.slice().order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static int mix(int h)
+	{
+		h ^= (h >>> 16);
+		h *= 0x85ebca6b;
+		h ^= (h >>> 13);
+		return h;
+	}
+
+	/**
+	 * Looks up the token title[start, end), lowercasing ASCII letters on the fly.
+	 * Returns the term index, or -1 if the token is not in the vocabulary.
+	 */
+	private int lookup(String title, int start, int end, int h)
+	{
+		int len = end - start;
+		int slot = mix(h) & mask;
+		while (true)
+		{
+			int term = slots.get(slot) - 1;
+			if (term < 0)
+			{
+				return -1;
+			}
+			int tStart = termOffsets.get(term);
+			if (termOffsets.get(term + 1) - tStart == len)
+			{
+				int k = 0;
+				while (k < len && termBytes.get(tStart + k) == toLower(title.charAt(start + k)))
+				{
+					k++;
+				}
+				if (k == len)
+				{
+					return term;
+				}
+			}
+			slot = (slot + 1) & mask;
+		}
+	}
+
+	private static boolean isLetter(char c)
+	{
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z');
+	}
+
+	private static char toLower(char c)
+	{
+		return (c >= 'A' && c <= 'Z') ? (char) (c + ('a' - 'A')) : c;
+	}
+
+	/**
+	 * Accumulates the log-probabilities of a title into scores[].
+	 *
+	 * Tokens are maximal runs of ASCII letters, lowercased -- the same tokens that
+	 * title.replaceAll("[^a-zA-Z ]", " ").toLowerCase().split("\\s+") produces, but without
+	 * allocating.  Tokens that are not in the vocabulary are skipped.
+	 */
+	private void score(String title, double[] scores)
+	{
+		System.arraycopy(prior, 0, scores, 0, C);
+
+		int length = title.length();
+		int i = 0;
+		while (i < length)
+		{
+			while (i < length && !isLetter(title.charAt(i)))
+			{
+				i++;
+			}
+			int start = i;
+			int h = 0;
+			while (i < length && isLetter(title.charAt(i)))
+			{
+				h = 31 * h + toLower(title.charAt(i));
+				i++;
+			}
+			if (start == i)
+			{
+				break;
+			}
+
+			int index = lookup(title, start, i, h);
+			if (index < 0)
+			{
+				//Skip this token -- do not factor it into calculation
+				continue;
+			}
+
+			int base = index * C;
+			if (precision == 4)
+			{
+				for (int j = 0; j < C; j++)
+				{
+					scores[j] += floatWeights.get(base + j);
+				}
+			}
+			else
+			{
+				for (int j = 0; j < C; j++)
+				{
+					scores[j] += doubleWeights.get(base + j);
+				}
+			}
+		}
+	}
+
+	private String argMax(double[] scores)
+	{
+		double maxScore = Integer.MIN_VALUE;
+		int maxIndex = Integer.MIN_VALUE;
+		for (int i = 0; i < C; i++)
+		{
+			if (maxScore < scores[i])
+			{
+				maxScore = scores[i];
+				maxIndex = i;
+			}
+		}
+
+		return classNames[maxIndex];
+	}
+
+	public String classify(String title) {
+		double scores[] = new double[C];
+		score(title, scores);
+		return argMax(scores);
+	}
+
+	/**
+	 * Classifies a whole page of titles at once, reusing one score buffer for the batch.
+	 */
+	public List<String> classify(List<String> titles) {
+		List<String> predictions = new ArrayList<String>(titles.size());
+		double scores[] = new double[C];
+		for (String title : titles)
+		{
+			score(title, scores);
+			predictions.add(argMax(scores));
+		}
+		return predictions;
+	}
+
+	private int N;
+	private int C;
+	private int precision;
+	private String[] classNames;
+	private double[] prior;
+
+	//Views over the model image; absolute reads only, so they are safe to share between threads
+	private IntBuffer slots;
+	private int mask;
+	private IntBuffer termOffsets;
+	private ByteBuffer termBytes;
+	private DoubleBuffer doubleWeights; //weights[t * C + c] = log P(t | c), term-major, when precision == 8
+	private FloatBuffer floatWeights; //same layout when precision == 4
+}
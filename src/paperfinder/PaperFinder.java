@@ -5,8 +5,11 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.URLDecoder;
 
+import javax.servlet.AsyncContext;
 import javax.servlet.ServletConfig;
 import javax.servlet.ServletException;
 import javax.servlet.annotation.WebServlet;
@@ -17,13 +20,29 @@ import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.Paths;
-import java.text.DecimalFormat;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Vector;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Predicate;
 
 import org.apache.lucene.analysis.standard.*;
 import org.apache.lucene.analysis.*;
@@ -31,152 +50,60 @@ import org.apache.lucene.document.*;
 import org.apache.lucene.index.*;
 import org.apache.lucene.queryparser.classic.*;
 import org.apache.lucene.search.*;
-import org.apache.lucene.search.spell.*;
 import org.apache.lucene.store.FSDirectory;
 import org.apache.commons.io.*;
 import org.apache.commons.lang3.*;
 import org.apache.lucene.search.highlight.*;
 import org.apache.lucene.index.memory.MemoryIndex;
 
-class MultinomialNaiveBayesClassifier {
-	public MultinomialNaiveBayesClassifier(Path path) throws IOException
-	{
-		//Load classifier information from file
-		
-        BufferedReader stream = new BufferedReader(new InputStreamReader(Files.newInputStream(path)));
-        
-        //File format:
-        /*
-         * Line: N (integer) -- number of terms
-         * Line: C (integer) -- number of classes
-         * Line(N): terms 
-         * Line(C): class names
-         * Line: priors[1..N] -- prior probabilities, space delimited (pre logged)
-         * Line--onwards: condProb[C][t] -- condProbs of classes, one per line (pre logged)
-         */
-        
-        String N_raw = stream.readLine();
-        N = Integer.parseInt(N_raw);
-        String C_raw = stream.readLine();
-        C = Integer.parseInt(C_raw);
-        
-        
-        V = new String[N];
-        classNames = new String[C];
-        prior = new double[C];
-        condProb = new double[C][N];
-        
-        for (int i = 0; i < N; i++)
-        {
-        	String v_raw = stream.readLine();
-        	V[i] = v_raw;
-        }
-        
-        for (int i = 0; i < C; i++)
-        {
-        	String c_raw = stream.readLine();
-        	classNames[i] = (c_raw);
-        }
-        
-        String[] priors_raw = stream.readLine().split("\\s");
-        for (int i = 0; i < C; i++)
-        {
-        	prior[i] = Double.parseDouble(priors_raw[i]);
-        }
-        
-        for (int i = 0; i < C; i++)
-        {
-        	String[] condProb_raw = stream.readLine().split("\\s");
-            for (int j = 0; j < N; j++)
-            {
-            	condProb[i][j] = Double.parseDouble(condProb_raw[j]);
-            }
-        }
-        
-	}
-	
-
-	public String classify(String title) {
-		
-		String[] tokens = title.replaceAll("[^a-zA-Z ]", " ").toLowerCase().split("\\s+");
-
-		//String[] tokens = title.split("\\s");
-		
-		double scores[] = new double[C];
-		
-		for (int i = 0; i < C; i++)
-		{
-			scores[i] = prior[i];
-		}
-		
-		for (int i = 0; i < tokens.length; i++)
-		{
-			String token = tokens[i];
-			
-			int index = 0;
-			while (index < V.length)
-			{
-				if (token.equals(V[index]))
-				{
-					break;
-				}
-				index++;
-			}
-			
-			if (index == V.length)
-			{
-				//Skip this token -- do not factor it into calculation
-				continue;
-			}
-			
-			for (int j = 0; j < C; j++)
-			{
-				scores[j] += condProb[j][index];
-			}
-		}
-		
-		double maxScore = Integer.MIN_VALUE;
-		int maxIndex = Integer.MIN_VALUE;
-		for (int i = 0; i < C; i++)
-		{
-			if (maxScore < scores[i])
-			{
-				maxScore = scores[i];
-				maxIndex = i;
-			}
-		}
-		
-		return classNames[maxIndex];
-		
-	}
-	
-	private int N;
-	private int C;
-	private String[] V;
-	private String[] classNames;
-	private double[] prior;
-	private double[][] condProb;
-}
-
 /**
  * Servlet implementation class PaperFinder
  * 
- * This servlet is the backend of PaperFinder.  It accepts queries and returns results in XML format.
+ * This servlet is the backend of PaperFinder.  It accepts queries and returns results in XML (or JSON) format.
  */
-@WebServlet(asyncSupported = true, urlPatterns = { "/PaperFinder" })
+@WebServlet(asyncSupported = true, urlPatterns = { "/PaperFinder", "/PaperFinder/stats", "/PaperFinder/batch" })
 public class PaperFinder extends HttpServlet {
 	private static final long serialVersionUID = 1L;
-	private static final int pageSize = 10; //Unused, but will become useful in the future so that we can return reasonable sized responses to the user
+	private static final int pageSize = 10; //Number of results returned per page
+	private static final int maxHops = 3; //Deepest citation neighborhood ("hops") a request may ask for
+	//The arguments of a search, as request parameters or on a line of a batch
+	private static final String[] searchParameters = { "query", "paper", "relation", "hops", "cluster", "conference", "year", "page", "cursor", "maxtotal", "format" };
 	
 	//Cached Lucene objects:
-	private IndexReader reader;
-	private IndexSearcher searcher;
+	private SearcherManager searcherManager; //Hands out the current (warmed) searcher; see WarmingSearcherFactory
 	private Analyzer analyzer;
-	private QueryParser parser;
-	private SpellChecker spellcheck;
+	private TitleSpellChecker spellcheck; //Suggests corrections from the terms of the open index
 	private Sort prSort;
+	private boolean earlyTermination; //"earlyTermination": set to false to sort every hit even in rank ordered segments
+	private int maxTotal; //"maxTotal": the "maxtotal" of searches that pass none, 0 (the default) to count every match
 	private MultinomialNaiveBayesClassifier classifier;
 	private boolean initialized = false; //A sentinel value to ensure initialization was performed correctly
+	
+	//Searches run on a dedicated, bounded pool rather than on the container's request threads.
+	//Configurable through servlet init parameters of the same names.
+	private ThreadPoolExecutor searchExecutor;
+	private long searchTimeoutMillis; //"searchTimeoutMillis": budget per request, including time spent queued
+	private boolean asyncSearch; //"asyncSearch": set to false to search on the request thread instead
+	
+	//The searches of a batch run on their own pool, as do the segments of each search.  "batchThreads" and
+	//"batchMaxSearches" (searches per batch)
+	private ForkJoinPool batchPool;
+	private int batchMaxSearches;
+	
+	//Results of popular queries, several pages deep.  "resultCacheMB" (0 disables) and "resultCachePages"
+	private QueryResultCache resultCache;
+	private int resultCachePages;
+	
+	//Doc ids of the cluster, conference and year filters per segment, shared by all searchers, so that segments that
+	//survive a reopen keep theirs.  "filterCacheMB" (0 disables) and "filterCacheQueries" (most filters kept)
+	private LRUQueryCache filterCache;
+	
+	//Polls the index directory for a new commit, e.g. after LuceneIndexer has rebuilt it.  "indexRefreshSeconds" (0 disables)
+	private ScheduledExecutorService refreshExecutor;
+	
+	//Latencies and outcomes of the requests, served at /PaperFinder/stats
+	private final SearchMetrics metrics = new SearchMetrics();
+	private long slowQueryNanos; //"slowQueryMillis": requests taking longer are logged with their stage timings (0 disables)
 
     /**
      * @throws ServletException 
@@ -190,29 +117,107 @@ public class PaperFinder extends HttpServlet {
         //This improves performance drastically.
         try {
             //String index = "citeseer2_index";
-        	String index = "sigmod_vldb_icse_index";
-	    	//reader = DirectoryReader.open(FSDirectory.open(Paths.get(getServletContext().getRealPath(index))));
-        	reader = DirectoryReader.open(FSDirectory.open(Paths.get(index)));
-	        searcher = new IndexSearcher(reader);
+        	String index = (getInitParameter("indexPath") != null) ? getInitParameter("indexPath") : "sigmod_vldb_icse_index";
 	        analyzer = new StandardAnalyzer();
 	        //parser = new QueryParser("contents", analyzer);
-	        parser = new QueryParser("title", analyzer);
 	        
 	        //System.out.println("got this far at least");
-	        //String rPathDir = getServletContext().getRealPath("spellcheck");
-	        String rPathDir = "spellcheck";
-	        //String rPathWords = getServletContext().getRealPath("words.txt");
-	        String rPathWords = "words.txt";
-
-	        spellcheck = new SpellChecker(FSDirectory.open(Paths.get(rPathDir)));
-
-	        spellcheck.indexDictionary(new PlainTextDictionary(Paths.get(rPathWords)), new IndexWriterConfig(), true); //TODO: should change analyzer?
+	        spellcheck = new TitleSpellChecker();
 	        
-	        SortField sf = new SortField("pageRankComponent", SortField.Type.DOUBLE, true);
-	        sf.setMissingValue(Double.NEGATIVE_INFINITY); //missing values should appear last
-	        prSort = new Sort(sf, SortField.FIELD_SCORE);
+	        prSort = RankSort.results(); //pageRankComponent, missing values last, then relevance
+	        earlyTermination = !"false".equals(getInitParameter("earlyTermination"));
+	        //Exact counts visit every match even when the top hits are known early; a cap lets the search stop with them
+	        maxTotal = intParameter("maxTotal", 0);
+	        
+	        //Prefer the memory-mapped binary model; fall back to parsing the text model.  "classifierPath" overrides both
+	        Path classifierPath = Paths.get("classifier.bin");
+	        if (getInitParameter("classifierPath") != null)
+	        {
+	        	classifierPath = Paths.get(getInitParameter("classifierPath"));
+	        }
+	        else if (!Files.exists(classifierPath))
+	        {
+	        	classifierPath = Paths.get("classifier.dat");
+	        }
+	        classifier = new MultinomialNaiveBayesClassifier(classifierPath);
 	        
-	        classifier = new MultinomialNaiveBayesClassifier(Paths.get("classifier.dat"));
+	        int searchThreads = intParameter("searchThreads", Runtime.getRuntime().availableProcessors());
+	        int searchQueue = intParameter("searchQueue", 4 * searchThreads);
+	        searchTimeoutMillis = intParameter("searchTimeoutMillis", 5000);
+	        asyncSearch = !"false".equals(getInitParameter("asyncSearch"));
+	        searchExecutor = new ThreadPoolExecutor(searchThreads, searchThreads, 0L, TimeUnit.MILLISECONDS,
+	        		new ArrayBlockingQueue<Runnable>(searchQueue), new ThreadFactory() {
+	        			private final AtomicInteger count = new AtomicInteger();
+	        			
+	        			@Override
+	        			public Thread newThread(Runnable r) {
+	        				Thread t = new Thread(r, "PaperFinder-search-" + count.incrementAndGet());
+	        				t.setDaemon(true);
+	        				return t;
+	        			}
+	        		});
+	        
+	        //A fork/join pool, because a batch search waits for its segments on the same pool: a waiting worker runs
+	        //queued segments itself rather than blocking, so the pool cannot deadlock however many searches wait
+	        batchPool = new ForkJoinPool(intParameter("batchThreads", Runtime.getRuntime().availableProcessors()),
+	        		new ForkJoinPool.ForkJoinWorkerThreadFactory() {
+	        			private final AtomicInteger count = new AtomicInteger();
+	        			
+	        			@Override
+	        			public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+	        				ForkJoinWorkerThread t = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+	        				t.setName("PaperFinder-batch-" + count.incrementAndGet());
+	        				return t;
+	        			}
+	        		}, null, false);
+	        batchMaxSearches = intParameter("batchMaxSearches", 10000);
+	        
+	        int resultCacheMB = intParameter("resultCacheMB", 64);
+	        resultCache = (resultCacheMB > 0) ? new QueryResultCache(resultCacheMB * 1024L * 1024L) : null;
+	        resultCachePages = intParameter("resultCachePages", 10);
+	        slowQueryNanos = intParameter("slowQueryMillis", 0) * 1000000L;
+	        
+	        //Unlike the default cache, every segment is cached, however small: a filter is a bit set per segment
+	        int filterCacheMB = intParameter("filterCacheMB", 32);
+	        filterCache = (filterCacheMB > 0) ? new LRUQueryCache(intParameter("filterCacheQueries", 1000), filterCacheMB * 1024L * 1024L,
+	        		new Predicate<LeafReaderContext>() {
+	        			@Override
+	        			public boolean test(LeafReaderContext context) {
+	        				return true;
+	        			}
+	        		}) : null;
+	        
+	        //Opening the first searcher warms it too, so the first request does not pay for a cold index
+	    	//searcherManager = new SearcherManager(FSDirectory.open(Paths.get(getServletContext().getRealPath(index))), ...);
+	        searcherManager = new SearcherManager(FSDirectory.open(Paths.get(index)),
+	        		new WarmingSearcherFactory(this, analyzer, prSort, resultCache, intParameter("warmQueries", 50),
+	        				filterCache, new FilterCachingPolicy()));
+	        
+	        //Reopening only loads new segments, and the new searcher is warmed before it replaces the current one.
+	        //Requests still running on the old searcher keep it open until they release it
+	        int indexRefreshSeconds = intParameter("indexRefreshSeconds", 10);
+	        if (indexRefreshSeconds > 0)
+	        {
+	        	refreshExecutor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+	        		@Override
+	        		public Thread newThread(Runnable r) {
+	        			Thread t = new Thread(r, "PaperFinder-index-refresh");
+	        			t.setDaemon(true);
+	        			return t;
+	        		}
+	        	});
+	        	refreshExecutor.scheduleWithFixedDelay(new Runnable() {
+	        		@Override
+	        		public void run() {
+	        			try {
+	        				searcherManager.maybeRefresh();
+	        			} catch (Exception e) {
+	        				//Keep serving the current searcher, e.g. while the indexer is still writing
+	        				log("Index refresh failed", e);
+	        			}
+	        		}
+	        	}, indexRefreshSeconds, indexRefreshSeconds, TimeUnit.SECONDS);
+	        }
 	        
 	        initialized = true;
         } catch (Exception e) {
@@ -220,176 +225,857 @@ public class PaperFinder extends HttpServlet {
         }
 	}
 	
+	private int intParameter(String name, int defaultValue) {
+		String value = getInitParameter(name);
+		return (value == null) ? defaultValue : Integer.parseInt(value);
+	}
+	
+	@Override
+	public void destroy() {
+		if (refreshExecutor != null) {
+			refreshExecutor.shutdownNow();
+		}
+		if (searchExecutor != null) {
+			searchExecutor.shutdown();
+		}
+		if (batchPool != null) {
+			batchPool.shutdown();
+		}
+		if (searcherManager != null) {
+			try {
+				searcherManager.close();
+			} catch (IOException e) {
+				log("Closing the index failed", e);
+			}
+		}
+		if (resultCache != null) {
+			log("Result cache: " + resultCache);
+		}
+		super.destroy();
+	}
+	
 	/**
 	 * @see HttpServlet#doGet(HttpServletRequest request, HttpServletResponse response)
 	 * 
 	 * Implements the GET request.  Accepts one argument, "query", which is the query string.
+	 * Optional arguments: "page" (0-based page number), "cluster" (restrict to one cluster), "conference" (to one
+	 * conference), "year" (to a year, "2005", or a range of years, "2005-2010", "2005-" or "-2010"),
+	 * "cursor" ("*" for the first page, then the token returned in &lt;cursor&gt;) for deep paging,
+	 * "maxtotal" (count at most this many matches: past it &lt;total&gt; is a lower bound, marked lowerbound="true",
+	 * and the facet counts cover only the matches counted; 0 counts them all; the default is the "maxTotal" init
+	 * parameter, itself 0),
+	 * "format" ("json" for a JSON response instead of XML) and "timings" ("true" to append per-stage timings).
+	 * 
+	 * Citation mode: "paper" (a paperID, in decimal) returns the papers related to it through citations instead,
+	 * ranked by PageRank in the same response format.  "relation" is "cites", "citedby" or "neighborhood" (both,
+	 * the default), and "hops" (1 to 3, default 1) how many citations away to go.  A "query" given along with
+	 * "paper" further restricts the related papers to its hits.
+	 * 
+	 * The search itself is handed to the bounded search pool and completed asynchronously.  When the pool's queue is
+	 * full the request is rejected immediately with a 503 status and an &lt;error&gt;.
+	 * 
+	 * /PaperFinder/stats returns the latency histograms and counters of the searches so far instead (see stats).
+	 * Batches of searches are POSTed to /PaperFinder/batch (see batch).
 	 */
 	protected void doGet(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
-		//response.getWriter().append("Served at: ").append(request.getContextPath());
-		response.setContentType("text/xml;charset=UTF-8");
-		//response.setCharacterEncoding("UTF-8");
-		PrintWriter out = response.getWriter();
+		final StageTimer timer = new StageTimer();
 		
-		//Results are UTF-8 formatted XML
-		out.println("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		if ("/PaperFinder/stats".equals(request.getServletPath())) {
+			stats(request, response);
+			return;
+		}
+		if ("/PaperFinder/batch".equals(request.getServletPath())) {
+			response.sendError(HttpServletResponse.SC_METHOD_NOT_ALLOWED, "Batches are sent with POST");
+			return;
+		}
+		
+		dispatch(request, response, timer, false);
+	}
+	
+	/**
+	 * Runs a search or a batch on the search pool, or on the request thread if asynchronous searching is off.
+	 */
+	private void dispatch(HttpServletRequest request, HttpServletResponse response, final StageTimer timer, final boolean batch) throws IOException {
+		if (initialized == false || !asyncSearch || !request.isAsyncSupported()) {
+			if (batch) {
+				batch(request, response);
+			} else {
+				search(request, response, timer);
+			}
+			return;
+		}
+		
+		final AsyncContext context = request.startAsync();
+		//The search enforces its own time budget; the container timeout is only a backstop.  Each search of a batch
+		//has its own budget, so a batch has no overall limit
+		context.setTimeout(batch ? 0 : 2 * searchTimeoutMillis + 10000);
+		try {
+			searchExecutor.execute(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						HttpServletRequest asyncRequest = (HttpServletRequest) context.getRequest();
+						HttpServletResponse asyncResponse = (HttpServletResponse) context.getResponse();
+						if (batch) {
+							batch(asyncRequest, asyncResponse);
+						} else {
+							search(asyncRequest, asyncResponse, timer);
+						}
+					} catch (Exception e) {
+						fail((HttpServletRequest) context.getRequest(), (HttpServletResponse) context.getResponse(), e);
+					} finally {
+						context.complete();
+					}
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			//Overloaded: fail fast instead of queueing without bound
+			reject(request, response, "Server is overloaded, please retry later");
+			context.complete();
+		}
+	}
+	
+	/**
+	 * Answers a request whose search threw with a 500 and a fatal error, unless part of its response was sent
+	 * already (then it is only logged), and counts it as an error.
+	 */
+	private void fail(HttpServletRequest request, HttpServletResponse response, Exception e) {
+		log("Search failed", e);
+		metrics.errors.incrementAndGet();
+		if (response.isCommitted()) {
+			return;
+		}
+		try {
+			response.resetBuffer();
+			response.setStatus(HttpServletResponse.SC_INTERNAL_SERVER_ERROR);
+			ResponseWriter out = ResponseWriter.get(request.getParameter("format"), response.getOutputStream());
+			response.setContentType(out.getContentType());
+			out.fatalError("Search failed");
+			out.finish();
+		} catch (IOException | IllegalStateException e2) {
+			log("Writing the failure of a search failed", e2);
+		}
+	}
+	
+	private void reject(HttpServletRequest request, HttpServletResponse response, String message) throws IOException {
+		metrics.rejected.incrementAndGet();
+		response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+		ResponseWriter out = ResponseWriter.get(request.getParameter("format"), response.getOutputStream());
+		response.setContentType(out.getContentType());
+		out.fatalError(message);
+		out.finish();
+	}
+	
+	/**
+	 * Parses a query string the way the search box sends it, restricted by the filters (if not null).  Only the
+	 * query string goes through the QueryParser; the filters are added as queries of their own.
+	 */
+	static Query parseQuery(Analyzer analyzer, String query, SearchFilters filters) throws ParseException {
+		QueryParser parser = new QueryParser("title", analyzer); //QueryParser is not thread safe; it is cheap to create
+		Query parsed = parser.parse(query);
+		return (filters == null) ? parsed : filters.apply(parsed, analyzer);
+	}
+	
+	/**
+	 * The papers related to a paper through citations: those it cites ("cites"), those citing it ("citedby"), or
+	 * both ("neighborhood", the default), up to the given number of hops away.  Answered from the searcher's
+	 * CitationIndex rather than from the index terms.
+	 * 
+	 * @return null if the paper is not in the index
+	 */
+	static Query citationQuery(PaperSearcher searcher, long paperID, String relation, int hops) {
+		int doc = searcher.citations.doc(paperID);
+		if (doc < 0)
+		{
+			return null;
+		}
+		boolean cites = !"citedby".equals(relation);
+		boolean citedBy = !"cites".equals(relation);
+		return new DocSetQuery(searcher.citations.neighborhood(doc, hops, cites, citedBy),
+				((relation == null) ? "neighborhood" : relation) + ":" + paperID + "~" + hops);
+	}
+	
+	/**
+	 * Restricts a citation query to the hits of a parsed query (which then gives the relevance), or else to the filters.
+	 */
+	private Query restrict(Query citations, Query query, SearchFilters filters) {
+		if (query == null)
+		{
+			return filters.apply(citations, analyzer);
+		}
+		//The parsed query carries the filters already
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		builder.add(query, BooleanClause.Occur.MUST);
+		builder.add(citations, BooleanClause.Occur.FILTER);
+		return builder.build();
+	}
+	
+	/**
+	 * Collects the top depth hits of a query (after the given hit, if not null) along with facet counts over all matches.
+	 * A searcher with an executor collects its segments concurrently.
+	 * 
+	 * @throws TimeLimitingCollector.TimeExceededException if collection takes longer than timeoutMillis
+	 */
+	private SearchResult collect(IndexSearcher searcher, Query query, FieldDoc after, int depth, int totalLimit, long timeoutMillis) throws IOException {
+		//Only the hits up to the requested depth are kept; the rest of the matches are just counted
+		int numHits = Math.min(depth, Math.max(searcher.getIndexReader().maxDoc(), 1));
+		try {
+			return searcher.search(query, new SearchCollectorManager(prSort, numHits, after, earlyTermination, totalLimit, timeoutMillis));
+		} catch (RuntimeException e) {
+			//A searcher with an executor wraps what its segments threw
+			if (e.getCause() instanceof ExecutionException && e.getCause().getCause() instanceof TimeLimitingCollector.TimeExceededException) {
+				throw (TimeLimitingCollector.TimeExceededException) e.getCause().getCause();
+			}
+			throw e;
+		}
+	}
+	
+	/**
+	 * Runs a search request and writes its response.  See doGet for the accepted arguments.
+	 */
+	private void search(HttpServletRequest request, HttpServletResponse response, StageTimer timer) throws IOException {
+		timer.end(StageTimer.Stage.QUEUE);
+		long remainingMillis = searchTimeoutMillis - timer.getElapsedNanos() / 1000000;
+		if (initialized && remainingMillis <= 0) {
+			reject(request, response, "Search timed out while queued, please retry later");
+			return;
+		}
+		
+		//The response is streamed straight to the output stream by a per-thread writer: XML by default, JSON if format=json
+		ResponseWriter out = ResponseWriter.get(request.getParameter("format"), response.getOutputStream());
+		response.setContentType(out.getContentType());
 		
 		if (initialized == false) {
-			out.println("<error>Initialization failed!  Check server logs for details</error>");
+			out.fatalError("Initialization failed!  Check server logs for details");
+			out.finish();
 			return;
 		}
 		
-		out.println("<search>");
+		out.startSearch();
 		
-
-        try {
-	    	String paramQuery = request.getParameter("query");
-	    	if (paramQuery == null) {
-	    		out.println("<error>No query provided</error>");
-	    		return;
-	    	}
-	    	
-	    	String paramPage = request.getParameter("page");
-	    	int page = 0;
-	    	if (paramPage != null) {
-	    		page = Integer.parseInt(paramPage);
-	    		if (page < 0)
-	    		{
-	    			page = 0;
-	    		}
-	    	}
-	    	
-	    	String paramCluster = request.getParameter("cluster");
-	    	Query query;
-	    	if (paramCluster == null)
-	    	{
-	    		query = parser.parse(paramQuery);
-	    	}
-	    	else
-	    	{
-	    		query = parser.parse("cluster:" + paramCluster + " AND title:" + paramQuery);
-	    	}
-	        Highlighter highlighter = new Highlighter(new SimpleHTMLFormatter("<highlight>", "</highlight>"), new QueryScorer(query));
-	        TopDocs results = searcher.search(query, reader.numDocs(), prSort, true, true);
-	        
-	        //out.println(results.totalHits + " total matching documents");
-	        out.println("<total>" + results.totalHits + "</total>");
-	        
-	        if (results.totalHits == 0)
-	        {
-
-	        	String[] suggestions = spellcheck.suggestSimilar(paramQuery, 1);
-	        	if (suggestions.length > 0)
-	        	{
-			        out.println("<suggestion>");
-			        out.println(suggestions[0].trim());
-			        out.println("</suggestion>");
-	        	}
-
-	        }
-	        
-	        int pages = results.scoreDocs.length / pageSize;
-	        out.println("<pages><current>" + page + "</current><last>" + pages + "</last></pages>");
-	    
-	        Map<String, Integer> clusterSet = new HashMap<String, Integer>();
-	        for (int i = 0; i < results.scoreDocs.length; i++) {
-	        	Document doc = searcher.doc(results.scoreDocs[i].doc);
-	        	String cluster = doc.get("cluster");
-	        	Integer count = clusterSet.get(cluster);
-	        	if (count == null)
-	        	{
-	        		count = 1;
-	        	}
-	        	else
-	        	{
-	        		count++;
-	        	}
-	        	clusterSet.put(cluster, count);
-	        }
-	        
-	        out.println("<clusters>");
-	        for (Map.Entry<String, Integer> entry : clusterSet.entrySet())
-	        {
-	        	String s = entry.getKey();
-	        	Integer sz = entry.getValue();
-	        	out.println("<cluster><name>" + s + "</name><size>" + sz + "</size></cluster>");
-	        }
-	        out.println("</clusters>");
-	        
-	        out.println("<results>");
-	        
-	        int start = page*pageSize;
-	        int end = (page+1)*pageSize;
-	        if (end > results.scoreDocs.length)
-	        {
-	        	end = results.scoreDocs.length;
-	        }
-	        DecimalFormat df = new DecimalFormat("#.#################");
-	        for (int i = start; i < end; i++) { //Print ALL results, sorted, rather than only first n.
-	                Document doc = searcher.doc(results.scoreDocs[i].doc);
-	                //String path = doc.get("path");
-	                //out.println((i + 1) + ". " + path);
-	                out.println("\t<result>");
-	                String title = doc.get("title");
-	                if (title != null) {
-	                        //out.println("   Title: " + doc.get("title"));
-	                	out.println("\t\t<title>" + StringEscapeUtils.escapeXml10(title) + "</title>");
-	                }
-	                String conference = doc.get("conference");
-	                if (conference != null) {
-	                	out.println("\t\t<conference>" + conference + "</conference>");
-	                }
-	                /*String pageRank = doc.get("pageRank");
-	                if (pageRank != null) {
-	                	out.println("\t\t<pagerank>" + pageRank + "</pagerank>");
-	                }*/
-	                String PRcomponent = doc.get("pageRankComponent");
-	                if (PRcomponent != null) {
-	                	String c = df.format(Double.parseDouble(PRcomponent));
-	                	out.println("\t\t<pagerankraw>" + c + "</pagerankraw>");
-	                }
-	                float relevance = results.scoreDocs[i].score;
-	                out.println("\t\t<relevance>" + df.format(relevance) + "</relevance>");
-	                
-	                String predicted = classifier.classify(title);
-	                out.println("\t\t<predicted>" + predicted + "</predicted>");
-	                
-	                String cluster = doc.get("cluster");
-	                out.println("\t\t<cluster>" + cluster + "</cluster>");
-	                //InputStream stream = Files.newInputStream(Paths.get(getServletContext().getRealPath(path)));
-	                //String contents = IOUtils.toString(stream, StandardCharsets.UTF_8);
-	                // String contents = doc.get("contents");
-	                //TODO: accelerate with pre-generated term vectors?
-	                /*if (contents != null)
-	                {
-	                	String xmlContents =  StringEscapeUtils.escapeXml10(contents);
-		                TokenStream tokenStream = TokenSources.getTokenStream("content", null, xmlContents, analyzer,  -1); //highlighter.getMaxDocCharsToAnalyze()
-		                String context = highlighter.getBestFragments(tokenStream, xmlContents, 3, "...");
-		                if (context != null)
-		                {
-		                	out.println("\t\t<context>\n" + context + "</context>");
-		                }
-	                }*/
-	                //out.println("\t\t<fields>" + doc.getFields() + "</fields>");
-	                //out.println("\t\t<path>" + path + "</path>");
-	                out.println("\t</result>");
-	        }
-	        out.println("</results>");
-        } catch (ParseException e) {
-        	out.println("<error>Could not parse query!  Reason: " + e.getMessage() + "</error>");
-        }/* catch (InvalidTokenOffsetsException e) {
-			// TODO Auto-generated catch block
-        	out.println("<error>Invalid token offsets!  Reason: " + e.getMessage() + "</error>");
-		}*/ finally {
-        	out.println("</search>");
-        }
-
+		Map<String, String> parameters = parameters(request);
+		//The request keeps the same searcher throughout, even if the index is reopened meanwhile
+		PaperSearcher searcher = (PaperSearcher) searcherManager.acquire();
+		try {
+			SearchPage page = runSearch(searcher, searcher, parameters, null, 0, timer, remainingMillis);
+			if (page.timedOut) {
+				response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+			}
+			write(out, page);
+		} finally {
+			searcherManager.release(searcher);
+		}
+		//Only a search that got written is closed and flushed: on an exception the response is left uncommitted, so
+		//that it can still be failed with a 500 (see fail)
+		timer.end(StageTimer.Stage.WRITE);
+		if ("true".equals(request.getParameter("timings"))) {
+			out.timings(timer);
+		}
+		out.endSearch();
+		out.finish();
+		finished(parameters, timer);
+	}
+	
+	/**
+	 * What a search found, up to the page of documents to write: the part of a search that does not depend on the
+	 * response, so that the searches of a batch can run on other threads than the one writing it.
+	 */
+	private static class SearchPage {
+		String error; //Written instead of the results, if not null
+		boolean timedOut;
+		SearchResult results;
+		int page;
+		int start; //Index of the page's first hit in results.scoreDocs
+		String suggestion; //For queries without hits; may be empty
+		final List<Document> docs = new ArrayList<Document>();
+		final List<String> predictions = new ArrayList<String>();
+		String cursor; //Token of the next page, when paging with cursors
+		
+		static SearchPage error(String message) {
+			SearchPage page = new SearchPage();
+			page.error = message;
+			return page;
+		}
+	}
+	
+	/**
+	 * Runs one search, given its arguments (see doGet), up to the page of documents to write.
+	 * 
+	 * @param collecting the searcher that collects the hits: searcher itself, or one over the same reader with an executor
+	 * @param shared the results of an earlier search of the same query, used if they are deep enough; may be null
+	 * @param minDepth collect at least this many hits, for later pages that will share them
+	 */
+	private SearchPage runSearch(PaperSearcher searcher, IndexSearcher collecting, Map<String, String> parameters, SearchResult shared, int minDepth,
+			StageTimer timer, long remainingMillis) throws IOException {
+		String paramQuery = parameters.get("query");
+		String paramPaper = parameters.get("paper");
+		if (paramQuery == null && paramPaper == null) {
+			return SearchPage.error("No query provided");
+		}
+		
+		SearchPage page = new SearchPage();
+		String paramPage = parameters.get("page");
+		if (paramPage != null) {
+			try {
+				page.page = Integer.parseInt(paramPage);
+			} catch (NumberFormatException e) {
+				return SearchPage.error("Invalid page " + paramPage);
+			}
+			if (page.page < 0)
+			{
+				page.page = 0;
+			}
+		}
+		
+		SearchFilters filters;
+		try {
+			filters = SearchFilters.parse(parameters);
+		} catch (NumberFormatException e) {
+			return SearchPage.error("Invalid year " + parameters.get("year"));
+		}
+		
+		int totalLimit = maxTotal;
+		String paramMaxTotal = parameters.get("maxtotal");
+		if (paramMaxTotal != null) {
+			try {
+				totalLimit = Integer.parseInt(paramMaxTotal);
+			} catch (NumberFormatException e) {
+				return SearchPage.error("Invalid maxtotal " + paramMaxTotal);
+			}
+		}
+		if (totalLimit <= 0)
+		{
+			totalLimit = Integer.MAX_VALUE;
+		}
+		
+		//Deep paging: a cursor token from the previous page lets us collect just one page after it
+		String paramCursor = parameters.get("cursor");
+		boolean resume = paramCursor != null && !paramCursor.isEmpty() && !paramCursor.equals("*");
+		int start = resume ? 0 : (int) Math.min((long) page.page*pageSize, Integer.MAX_VALUE - pageSize);
+		page.start = start;
+		
+		//Popular queries are served from the result cache, which holds several pages of hits per query.
+		//Resumed (cursor) requests are always collected, since they only need a single page
+		//Citation queries are not cached: they are cheap, and their key would not replay when warming
+		String cacheKey = (resultCache != null && !resume && paramPaper == null) ? QueryResultCache.key(paramQuery, filters) : null;
+		SearchResult results = (shared != null && shared.covers(start + pageSize) && shared.counts(totalLimit)) ? shared : null;
+		if (results == null && cacheKey != null)
+		{
+			results = resultCache.get(cacheKey, searcher.generation, start + pageSize, totalLimit);
+		}
+		timer.end(StageTimer.Stage.PARSE);
+		
+		if (results == null)
+		{
+			Query query;
+			try {
+				query = (paramQuery != null) ? parseQuery(analyzer, paramQuery, filters) : null;
+			} catch (ParseException e) {
+				return SearchPage.error("Could not parse query!  Reason: " + e.getMessage());
+			}
+			if (paramPaper != null)
+			{
+				String relation = parameters.get("relation");
+				if (relation != null && !relation.equals("cites") && !relation.equals("citedby") && !relation.equals("neighborhood"))
+				{
+					return SearchPage.error("Unknown relation " + relation);
+				}
+				String paramHops = parameters.get("hops");
+				int hops = 1;
+				if (paramHops != null)
+				{
+					try {
+						hops = Integer.parseInt(paramHops);
+					} catch (NumberFormatException e) {
+						return SearchPage.error("Invalid hops " + paramHops);
+					}
+					hops = Math.max(1, Math.min(hops, maxHops));
+				}
+				long paperID;
+				try {
+					paperID = Long.parseLong(paramPaper);
+				} catch (NumberFormatException e) {
+					return SearchPage.error("Invalid paper " + paramPaper);
+				}
+				Query citations = citationQuery(searcher, paperID, relation, hops);
+				if (citations == null)
+				{
+					return SearchPage.error("Unknown paper " + paramPaper);
+				}
+				query = restrict(citations, query, filters);
+			}
+			
+			FieldDoc after = null;
+			if (resume)
+			{
+				after = SearchCursor.decode(paramCursor);
+				if (after == null)
+				{
+					return SearchPage.error("Invalid cursor");
+				}
+			}
+			timer.end(StageTimer.Stage.PARSE);
+			
+			int depth = resume ? pageSize : Math.max(Math.max(start + pageSize, resultCachePages * pageSize), minDepth);
+			try {
+				results = collect(collecting, query, after, depth, totalLimit, remainingMillis);
+			} catch (TimeLimitingCollector.TimeExceededException e) {
+				timer.end(StageTimer.Stage.SEARCH);
+				metrics.timeouts.incrementAndGet();
+				page = SearchPage.error("Search timed out");
+				page.timedOut = true;
+				return page;
+			}
+			if (cacheKey != null)
+			{
+				resultCache.put(cacheKey, searcher.generation, results);
+			}
+			timer.end(StageTimer.Stage.SEARCH);
+		}
+		page.results = results;
+		
+		if (results.totalHits == 0)
+		{
+			metrics.zeroResults.incrementAndGet();
+		}
+		if (results.totalHits == 0 && paramQuery != null)
+		{
+			String suggestion = results.suggestion;
+			if (suggestion == null)
+			{
+				suggestion = spellcheck.suggest(searcher.getIndexReader(), paramQuery);
+				results.suggestion = suggestion;
+				metrics.spellchecks.incrementAndGet();
+			}
+			if (!suggestion.isEmpty())
+			{
+				metrics.suggestions.incrementAndGet();
+			}
+			page.suggestion = suggestion;
+			timer.end(StageTimer.Stage.SPELLCHECK);
+		}
+		
+		int end = start + pageSize;
+		if (end > results.scoreDocs.length)
+		{
+			end = results.scoreDocs.length;
+		}
+		
+		//Load the page of documents first.  Predictions are normally stored in the index by LuceneIndexer;
+		//any documents indexed without one are classified live, in one batch
+		List<String> unpredictedTitles = new ArrayList<String>();
+		for (int i = start; i < end; i++) {
+			Document doc = searcher.doc(results.scoreDocs[i].doc);
+			page.docs.add(doc);
+			String predicted = doc.get("predicted");
+			page.predictions.add(predicted);
+			if (predicted == null) {
+				unpredictedTitles.add(doc.get("title"));
+			}
+		}
+		timer.end(StageTimer.Stage.FETCH);
+		if (!unpredictedTitles.isEmpty()) {
+			List<String> livePredictions = classifier.classify(unpredictedTitles);
+			int next = 0;
+			for (int i = 0; i < page.predictions.size(); i++) {
+				if (page.predictions.get(i) == null) {
+					page.predictions.set(i, livePredictions.get(next++));
+				}
+			}
+			timer.end(StageTimer.Stage.CLASSIFY);
+		}
+		
+		if (paramCursor != null && end - start == pageSize)
+		{
+			page.cursor = SearchCursor.encode((FieldDoc) results.scoreDocs[end - 1]);
+		}
+		return page;
+	}
+	
+	/**
+	 * Writes what a search found, or its error, between startSearch and endSearch.
+	 */
+	private void write(ResponseWriter out, SearchPage page) throws IOException {
+		if (page.error != null) {
+			error(out, page.error);
+			return;
+		}
+		SearchResult results = page.results;
+		out.total(results.totalHits, results.truncated);
+		if (page.suggestion != null && !page.suggestion.isEmpty())
+		{
+			out.suggestion(page.suggestion);
+		}
+		
+		int pages = results.totalHits / pageSize;
+		out.pages(page.page, pages);
+		
+		out.facets("clusters", "cluster", results.clusterCounts);
+		out.facets("conferences", "conference", results.conferenceCounts);
+		
+		out.startResults();
+		for (int i = 0; i < page.docs.size(); i++) {
+			Document doc = page.docs.get(i);
+			ScoreDoc hit = results.scoreDocs[page.start + i];
+			//The sort value comes from the doc values, which is what the hit was ranked by (indexes updated by older
+			//versions of IndexUpdater, which rewrote the doc values in place, may have a stale stored copy)
+			Double PRcomponent = (Double) ((FieldDoc) hit).fields[0];
+			out.result(doc.get("title"),
+					doc.get("conference"),
+					(PRcomponent.doubleValue() == Double.NEGATIVE_INFINITY) ? null : PRcomponent,
+					hit.score,
+					page.predictions.get(i),
+					doc.get("cluster"));
+		}
+		out.endResults();
+		
+		if (page.cursor != null)
+		{
+			out.cursor(page.cursor);
+		}
+	}
+	
+	/** One search of a batch */
+	private static class BatchEntry {
+		final String id;
+		final Map<String, String> parameters; //null if the line could not be decoded
+		final StageTimer timer = new StageTimer();
+		SearchPage page;
+		Future<?> done; //Completes when this entry's search (and the rest of its group) has run
+		
+		BatchEntry(String id, Map<String, String> parameters) {
+			this.id = id;
+			this.parameters = parameters;
+		}
+	}
+	
+	/**
+	 * Serves POST /PaperFinder/batch: many searches in one request, with one search per line of the body, written
+	 * like the parameters of a GET request, e.g. "id=q1&amp;query=query%20optimization&amp;cluster=cluster39&amp;page=1".
+	 * Each search accepts the arguments of doGet except "format", which is given once, on the URL of the batch.  An
+	 * "id" tags the search's response; it defaults to the line number.  Send the body as text/plain.
+	 * 
+	 * The response has one search response per line, in the order of the lines, each tagged with its id:
+	 * &lt;batch&gt;&lt;search id="q1"&gt;...&lt;/search&gt;...&lt;/batch&gt; in XML and {"batch":[{"id":"q1",...},...]} in
+	 * JSON.  Responses are written as soon as they and all before them are done, so they stream out.
+	 * 
+	 * The searches run in parallel on the batch pool, over one searcher that also collects the segments of each
+	 * search in parallel.  Searches that only differ in their page are run once, as deep as the deepest of their
+	 * pages, and the pages are all taken from the same hits; all searches share the result cache with GET requests.
+	 * Each search has its own time budget, from when it starts running.  Each search counts as a request in the
+	 * stats.
+	 */
+	private void batch(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		//The body is read before any parameter is, so that a form encoded body is not taken for parameters
+		List<BatchEntry> entries = new ArrayList<BatchEntry>();
+		boolean tooMany = false;
+		BufferedReader body = new BufferedReader(new InputStreamReader(request.getInputStream(), StandardCharsets.UTF_8));
+		String line;
+		int lineNumber = 0;
+		while ((line = body.readLine()) != null)
+		{
+			lineNumber++;
+			line = line.trim();
+			if (line.isEmpty())
+			{
+				continue;
+			}
+			if (entries.size() == batchMaxSearches)
+			{
+				tooMany = true;
+				break;
+			}
+			Map<String, String> parameters = parseLine(line);
+			String id = (parameters != null && parameters.get("id") != null) ? parameters.get("id") : Integer.toString(lineNumber);
+			entries.add(new BatchEntry(id, parameters));
+		}
+		
+		ResponseWriter out = ResponseWriter.get(request.getParameter("format"), response.getOutputStream());
+		response.setContentType(out.getContentType());
+		if (initialized == false) {
+			out.fatalError("Initialization failed!  Check server logs for details");
+			out.finish();
+			return;
+		}
+		if (tooMany) {
+			response.setStatus(HttpServletResponse.SC_REQUEST_ENTITY_TOO_LARGE);
+			out.fatalError("Too many searches, at most " + batchMaxSearches + " are allowed per batch");
+			out.finish();
+			return;
+		}
+		metrics.batches.incrementAndGet();
+		
+		//Searches that differ only in their page form a group, which runs as one task
+		Map<String, List<BatchEntry>> groups = new LinkedHashMap<String, List<BatchEntry>>();
+		Map<String, Integer> groupDepths = new HashMap<String, Integer>();
+		for (BatchEntry entry : entries)
+		{
+			String group = (entry.parameters == null) ? "invalid:" + entry.id : groupKey(entry.parameters);
+			List<BatchEntry> members = groups.get(group);
+			if (members == null)
+			{
+				members = new ArrayList<BatchEntry>();
+				groups.put(group, members);
+				groupDepths.put(group, 0);
+			}
+			members.add(entry);
+			groupDepths.put(group, Math.max(groupDepths.get(group), depthOf(entry.parameters)));
+		}
+		
+		//The whole batch sees the same point-in-time view of the index
+		final PaperSearcher searcher = (PaperSearcher) searcherManager.acquire();
+		final IndexSearcher collecting = new IndexSearcher(searcher.getIndexReader(), batchPool);
+		collecting.setSimilarity(searcher.getSimilarity(true));
+		collecting.setQueryCache(searcher.getQueryCache());
+		collecting.setQueryCachingPolicy(searcher.getQueryCachingPolicy());
+		final AtomicBoolean abandoned = new AtomicBoolean(); //Set when the response fails, e.g. the client went away
+		List<Future<?>> tasks = new ArrayList<Future<?>>();
+		try {
+			for (Map.Entry<String, List<BatchEntry>> group : groups.entrySet())
+			{
+				final List<BatchEntry> members = group.getValue();
+				final int depth = groupDepths.get(group.getKey());
+				Future<?> task = batchPool.submit(new Runnable() {
+					@Override
+					public void run() {
+						SearchResult shared = null;
+						for (BatchEntry entry : members)
+						{
+							entry.timer.end(StageTimer.Stage.QUEUE);
+							if (abandoned.get())
+							{
+								entry.page = SearchPage.error("Batch abandoned");
+								continue;
+							}
+							try {
+								entry.page = (entry.parameters == null) ? SearchPage.error("Could not decode the search")
+										: runSearch(searcher, collecting, entry.parameters, shared, depth, entry.timer, searchTimeoutMillis);
+							} catch (Exception e) {
+								log("Batch search " + entry.id + " failed", e);
+								entry.page = SearchPage.error("Search failed");
+							}
+							if (entry.page.results != null)
+							{
+								shared = entry.page.results;
+							}
+						}
+					}
+				});
+				for (BatchEntry entry : members)
+				{
+					entry.done = task;
+				}
+				tasks.add(task);
+			}
+			
+			out.startBatch();
+			for (BatchEntry entry : entries)
+			{
+				try {
+					entry.done.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IOException("Interrupted while waiting for batch search " + entry.id, e);
+				} catch (ExecutionException e) {
+					throw new IOException("Batch search " + entry.id + " failed", e);
+				}
+				out.startSearch(entry.id);
+				write(out, entry.page);
+				entry.timer.end(StageTimer.Stage.WRITE);
+				if (entry.parameters != null && "true".equals(entry.parameters.get("timings"))) {
+					out.timings(entry.timer);
+				}
+				out.endSearch();
+				finished(entry.parameters, entry.timer);
+			}
+			out.endBatch();
+			out.finish();
+		} finally {
+			//The searcher may only be released once no search uses it any more
+			abandoned.set(true);
+			for (Future<?> task : tasks)
+			{
+				try {
+					task.get();
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} catch (ExecutionException e) {
+					//Already logged by the task
+				}
+			}
+			searcherManager.release(searcher);
+		}
+	}
+	
+	/**
+	 * Decodes a line of a batch, written like the query string of a URL.  Like getParameter, the first value of a
+	 * repeated name wins.
+	 * 
+	 * @return the parameters, or null if the line is not properly encoded
+	 */
+	private static Map<String, String> parseLine(String line) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		try {
+			for (String pair : line.split("&")) {
+				if (pair.isEmpty()) {
+					continue;
+				}
+				int equals = pair.indexOf('=');
+				String name = URLDecoder.decode((equals < 0) ? pair : pair.substring(0, equals), "UTF-8");
+				String value = (equals < 0) ? "" : URLDecoder.decode(pair.substring(equals + 1), "UTF-8");
+				if (!parameters.containsKey(name)) {
+					parameters.put(name, value);
+				}
+			}
+		} catch (IllegalArgumentException | UnsupportedEncodingException e) {
+			return null;
+		}
+		return parameters;
+	}
+	
+	/** @return what identifies the hits of a search: all of its arguments but the page (and format) */
+	private static String groupKey(Map<String, String> parameters) {
+		StringBuilder key = new StringBuilder();
+		for (String name : searchParameters) {
+			if (!name.equals("page") && !name.equals("format")) {
+				key.append(parameters.get(name)).append('\u0000');
+			}
+		}
+		return key.toString();
+	}
+	
+	/** @return how many hits the page of a batch search needs, or 0 if unknown (it then fails on its own) */
+	private static int depthOf(Map<String, String> parameters) {
+		if (parameters == null || parameters.get("page") == null) {
+			return pageSize;
+		}
+		try {
+			return (int) Math.min((Math.max(Integer.parseInt(parameters.get("page")), 0) + 1L) * pageSize, Integer.MAX_VALUE);
+		} catch (NumberFormatException e) {
+			return 0;
+		}
+	}
+	
+	/** @return the search arguments of a request */
+	private static Map<String, String> parameters(HttpServletRequest request) {
+		Map<String, String> parameters = new HashMap<String, String>();
+		for (String name : searchParameters) {
+			String value = request.getParameter(name);
+			if (value != null) {
+				parameters.put(name, value);
+			}
+		}
+		return parameters;
+	}
+	
+	/**
+	 * Records a finished search in the metrics, and logs it if it was slow.
+	 */
+	private void finished(Map<String, String> parameters, StageTimer timer) {
+		metrics.requests.incrementAndGet();
+		metrics.record(timer);
+		if (slowQueryNanos > 0 && timer.getElapsedNanos() > slowQueryNanos) {
+			metrics.slowQueries.incrementAndGet();
+			log("Slow query (" + timer.getElapsedNanos() / 1000000 + "ms): " + describe(parameters) + " " + describe(timer));
+		}
+	}
+	
+	private void error(ResponseWriter out, String message) throws IOException {
+		metrics.errors.incrementAndGet();
+		out.error(message);
+	}
+	
+	/** @return the search arguments, for the slow query log */
+	private static String describe(Map<String, String> parameters) {
+		if (parameters == null) {
+			return "(invalid)";
+		}
+		StringBuilder arguments = new StringBuilder();
+		for (String name : searchParameters) {
+			String value = parameters.get(name);
+			if (value != null) {
+				arguments.append((arguments.length() == 0) ? "" : "&").append(name).append('=').append(value);
+			}
+		}
+		return arguments.toString();
+	}
+	
+	private static String describe(StageTimer timer) {
+		StringBuilder stages = new StringBuilder("[");
+		for (StageTimer.Stage stage : StageTimer.Stage.values()) {
+			long nanos = timer.getNanos(stage);
+			if (nanos > 0) {
+				stages.append((stages.length() == 1) ? "" : " ").append(stage.label).append('=').append(nanos / 1000).append("us");
+			}
+		}
+		return stages.append(']').toString();
+	}
+	
+	/**
+	 * Serves /PaperFinder/stats: the request metrics along with the state of the open index, the result and filter
+	 * caches and the search pool, as JSON, or in the Prometheus text format with "format=prometheus".
+	 */
+	private void stats(HttpServletRequest request, HttpServletResponse response) throws IOException {
+		SearchMetrics.Group index = new SearchMetrics.Group("index");
+		if (initialized) {
+			PaperSearcher searcher = (PaperSearcher) searcherManager.acquire();
+			try {
+				IndexReader reader = searcher.getIndexReader();
+				index.gauge("generation", searcher.generation)
+						.gauge("documents", reader.numDocs())
+						.gauge("deletedDocuments", reader.numDeletedDocs())
+						.gauge("segments", reader.leaves().size())
+						.gauge("citations", searcher.citations.edgeCount())
+						.gauge("citationBytes", searcher.citations.ramBytesUsed());
+			} finally {
+				searcherManager.release(searcher);
+			}
+		}
+		SearchMetrics.Group pool = new SearchMetrics.Group("searchPool");
+		if (searchExecutor != null) {
+			pool.gauge("threads", searchExecutor.getMaximumPoolSize())
+					.gauge("active", searchExecutor.getActiveCount())
+					.gauge("queued", searchExecutor.getQueue().size());
+		}
+		SearchMetrics.Group cache = new SearchMetrics.Group("resultCache");
+		if (resultCache != null) {
+			cache.counter("hits", resultCache.getHits())
+					.counter("misses", resultCache.getMisses())
+					.counter("evictions", resultCache.getEvictions())
+					.counter("invalidations", resultCache.getInvalidations())
+					.gauge("entries", resultCache.size())
+					.gauge("bytes", resultCache.getUsedBytes());
+		}
+		SearchMetrics.Group filters = new SearchMetrics.Group("filterCache");
+		if (filterCache != null) {
+			filters.counter("hits", filterCache.getHitCount())
+					.counter("misses", filterCache.getMissCount())
+					.counter("evictions", filterCache.getEvictionCount())
+					.gauge("entries", filterCache.getCacheSize())
+					.gauge("bytes", filterCache.ramBytesUsed());
+		}
+		
+		String text;
+		if ("prometheus".equals(request.getParameter("format"))) {
+			response.setContentType("text/plain; version=0.0.4; charset=UTF-8");
+			text = metrics.toPrometheus(index, pool, cache, filters);
+		} else {
+			response.setContentType("application/json; charset=UTF-8");
+			text = metrics.toJson(index, pool, cache, filters);
+		}
+		OutputStream out = response.getOutputStream();
+		out.write(text.getBytes(StandardCharsets.UTF_8));
+		out.flush();
 	}
 
 	/**
 	 * @see HttpServlet#doPost(HttpServletRequest request, HttpServletResponse response)
 	 */
 	protected void doPost(HttpServletRequest request, HttpServletResponse response) throws ServletException, IOException {
+		if ("/PaperFinder/batch".equals(request.getServletPath())) {
+			dispatch(request, response, new StageTimer(), true);
+			return;
+		}
 		doGet(request, response);
 	}
 	
@@ -0,0 +1,24 @@
+package paperfinder;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.search.IndexSearcher;
+
+/**
+ * An IndexSearcher over one point-in-time view of the index, as handed out by the SearcherManager.
+ *
+ * Each searcher gets a generation number that increases with every reopen.  Doc ids are only meaningful for the
+ * reader they came from, so anything derived from them (cached results) is tagged with the generation, and the
+ * citation graph over them is built for each searcher.
+ */
+class PaperSearcher extends IndexSearcher {
+	final long generation;
+	final CitationIndex citations;
+
+	PaperSearcher(IndexReader reader, long generation) throws IOException {
+		super(reader);
+		this.generation = generation;
+		this.citations = CitationIndex.build(reader);
+	}
+}
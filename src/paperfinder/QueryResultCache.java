@@ -0,0 +1,172 @@
+package paperfinder;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A size-bounded LRU cache of search results, keyed by the normalized query string and the filters (see SearchFilters).
+ *
+ * Entries hold the top hits to some depth (not a single page), so all the pages of a popular query are served
+ * from one entry.  Doc ids are only meaningful for the searcher they were collected on, so the cache remembers the
+ * searcher generation it was filled from, and is cleared as soon as a newer generation uses it.  Requests still
+ * running on an older searcher after a reopen neither read nor fill the cache.
+ */
+class QueryResultCache {
+	private final long maxBytes;
+	private long usedBytes;
+	private long generation = -1;
+
+	//Access ordered, so iteration starts at the least recently used entry
+	private final LinkedHashMap<String, SearchResult> entries = new LinkedHashMap<String, SearchResult>(16, 0.75f, true);
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong evictions = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	QueryResultCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+	}
+
+	/**
+	 * Builds the cache key for a query.  Whitespace is collapsed, since it never changes the meaning of a query;
+	 * case is kept, since it does (AND/OR operators, field names).
+	 */
+	static String key(String query, SearchFilters filters) {
+		StringBuilder key = new StringBuilder(query.length() + 16);
+		boolean space = false;
+		for (int i = 0; i < query.length(); i++)
+		{
+			char c = query.charAt(i);
+			if (Character.isWhitespace(c))
+			{
+				space = key.length() > 0;
+			}
+			else
+			{
+				if (space)
+				{
+					key.append(' ');
+					space = false;
+				}
+				key.append(c);
+			}
+		}
+		return key.append('\u0000').append(filters.key()).toString();
+	}
+
+	static String queryOf(String key) {
+		return key.substring(0, key.indexOf('\u0000'));
+	}
+
+	static SearchFilters filtersOf(String key) {
+		return SearchFilters.fromKey(key.substring(key.indexOf('\u0000') + 1));
+	}
+
+	/**
+	 * @return the cached result covering at least the first depth hits and counting up to totalLimit matches, or null
+	 */
+	synchronized SearchResult get(String key, long generation, int depth, int totalLimit) {
+		SearchResult result = checkGeneration(generation) ? entries.get(key) : null;
+		if (result == null || !result.covers(depth) || !result.counts(totalLimit))
+		{
+			misses.incrementAndGet();
+			return null;
+		}
+		hits.incrementAndGet();
+		return result;
+	}
+
+	synchronized void put(String key, long generation, SearchResult result) {
+		if (!checkGeneration(generation))
+		{
+			return;
+		}
+		long size = result.ramBytesUsed() + 2L * key.length();
+		if (size > maxBytes)
+		{
+			return;
+		}
+		SearchResult previous = entries.put(key, result);
+		if (previous != null)
+		{
+			usedBytes -= previous.ramBytesUsed() + 2L * key.length();
+		}
+		usedBytes += size;
+
+		Iterator<Map.Entry<String, SearchResult>> eldest = entries.entrySet().iterator();
+		while (usedBytes > maxBytes && eldest.hasNext())
+		{
+			Map.Entry<String, SearchResult> entry = eldest.next();
+			usedBytes -= entry.getValue().ramBytesUsed() + 2L * entry.getKey().length();
+			eldest.remove();
+			evictions.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @return the keys of up to n of the most recently used entries, most recent first
+	 */
+	synchronized List<String> recentKeys(int n) {
+		List<String> keys = new ArrayList<String>(entries.keySet());
+		List<String> recent = new ArrayList<String>(Math.min(n, keys.size()));
+		for (int i = keys.size() - 1; i >= 0 && recent.size() < n; i--)
+		{
+			recent.add(keys.get(i));
+		}
+		return recent;
+	}
+
+	/**
+	 * Drops every entry when a newer searcher generation arrives.
+	 *
+	 * @return false if the generation is older than the cache's, in which case the cache must not be used
+	 */
+	private boolean checkGeneration(long generation) {
+		if (generation > this.generation)
+		{
+			if (!entries.isEmpty())
+			{
+				invalidations.incrementAndGet();
+			}
+			entries.clear();
+			usedBytes = 0;
+			this.generation = generation;
+		}
+		return generation == this.generation;
+	}
+
+	long getHits() {
+		return hits.get();
+	}
+
+	long getMisses() {
+		return misses.get();
+	}
+
+	long getEvictions() {
+		return evictions.get();
+	}
+
+	long getInvalidations() {
+		return invalidations.get();
+	}
+
+	synchronized int size() {
+		return entries.size();
+	}
+
+	synchronized long getUsedBytes() {
+		return usedBytes;
+	}
+
+	@Override
+	public String toString() {
+		return "hits=" + getHits() + " misses=" + getMisses() + " evictions=" + getEvictions()
+				+ " invalidations=" + getInvalidations() + " entries=" + size() + " bytes=" + getUsedBytes();
+	}
+}
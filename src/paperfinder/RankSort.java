@@ -0,0 +1,42 @@
+package paperfinder;
+
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.SortField;
+
+/**
+ * The rank order shared by LuceneIndexer and PaperFinder: by pageRankComponent, highest first, with papers that have
+ * no rank last.  LuceneIndexer stores documents in this order (IndexWriterConfig.setIndexSort), and PaperFinder ranks
+ * hits by it, breaking ties by relevance, so that it can stop collecting a segment once its top hits are known (see
+ * {@link RankTerminatingCollector}).
+ *
+ * Kept apart from the servlet so the indexer can use it without the servlet API on its classpath.
+ */
+public class RankSort {
+	public static final String FIELD = "pageRankComponent";
+
+	private RankSort() {
+	}
+
+	public static SortField field() {
+		SortField sf = new SortField(FIELD, SortField.Type.DOUBLE, true);
+		sf.setMissingValue(Double.NEGATIVE_INFINITY); //missing values should appear last
+		return sf;
+	}
+
+	/** The order of search results: rank, then relevance */
+	public static Sort results() {
+		return new Sort(field(), SortField.FIELD_SCORE);
+	}
+
+	/** The order of documents in an index built by LuceneIndexer */
+	public static Sort index() {
+		return new Sort(field());
+	}
+
+	/**
+	 * @return whether documents sorted by indexSort (a segment's, which may be null) are in rank order
+	 */
+	static boolean isRankOrder(Sort indexSort) {
+		return indexSort != null && indexSort.getSort().length > 0 && indexSort.getSort()[0].equals(field());
+	}
+}
@@ -0,0 +1,75 @@
+package paperfinder;
+
+import java.io.IOException;
+
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.CollectionTerminatedException;
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.FilterLeafCollector;
+import org.apache.lucene.search.LeafCollector;
+import org.apache.lucene.util.Bits;
+
+/**
+ * Stops feeding a top hits collector sorted by {@link RankSort#results()} once the rest of a segment cannot make it
+ * into the top hits, which is the case in segments stored in rank order (see {@link RankSort#index()}): after numHits
+ * competitive hits, a hit of lower rank than the last of them loses to all of them, and so do all hits after it.
+ * Hits of the same rank as the last are still collected, as their relevance breaks the tie.  Segments in another
+ * order (written before LuceneIndexer sorted the index, or flushed by an update and not merged yet) are collected in full.
+ *
+ * Only the wrapped collector stops: used inside a MultiCollector, the others keep going, and the segment is left only
+ * once all of them stopped.  Exact facet counts see every hit, so the search stays linear in the number of hits and
+ * only the sorting of the tail is saved; with a count limit (see FacetCollector) the whole segment stops once both
+ * the top hits and the counts are done.  The wrapped collector's total hit count is a lower bound once a segment
+ * was cut short.
+ */
+class RankTerminatingCollector extends FilterCollector {
+	private final int numHits;
+	private final double ceiling;
+
+	/**
+	 * @param ceiling the rank of the hit collection resumes after (hits of higher rank are not competitive, and
+	 * neither may some of the same rank), or positive infinity for the first page
+	 */
+	RankTerminatingCollector(Collector in, int numHits, double ceiling) {
+		super(in);
+		this.numHits = numHits;
+		this.ceiling = ceiling;
+	}
+
+	@Override
+	public LeafCollector getLeafCollector(LeafReaderContext context) throws IOException {
+		LeafReader reader = context.reader();
+		LeafCollector leaf = super.getLeafCollector(context);
+		if (!RankSort.isRankOrder(reader.getIndexSort()))
+		{
+			return leaf;
+		}
+		final NumericDocValues ranks = DocValues.getNumeric(reader, RankSort.FIELD);
+		final Bits hasRank = DocValues.getDocsWithField(reader, RankSort.FIELD);
+		return new FilterLeafCollector(leaf) {
+			private int competitive;
+			private double boundary = Double.NEGATIVE_INFINITY;
+
+			@Override
+			public void collect(int doc) throws IOException {
+				double rank = hasRank.get(doc) ? Double.longBitsToDouble(ranks.get(doc)) : Double.NEGATIVE_INFINITY;
+				if (competitive == numHits)
+				{
+					if (rank < boundary)
+					{
+						throw new CollectionTerminatedException();
+					}
+				}
+				else if (rank < ceiling && ++competitive == numHits)
+				{
+					boundary = rank;
+				}
+				super.collect(doc);
+			}
+		};
+	}
+}
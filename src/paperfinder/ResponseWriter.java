@@ -0,0 +1,403 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.util.Map;
+
+/**
+ * Serializes a search response straight to the servlet output stream.
+ *
+ * Each thread reuses one writer instance (see {@link #get}), with a fixed size byte buffer that is flushed to the
+ * stream whenever it fills up, so buffering is bounded regardless of the response size.  Strings are encoded to
+ * UTF-8 and escaped directly into that buffer, and numbers are formatted without DecimalFormat, so writing a
+ * response does not allocate in the common case.
+ *
+ * Subclasses define the output format: {@link XmlResponseWriter} (the original schema) and {@link JsonResponseWriter}.
+ */
+abstract class ResponseWriter {
+	private static final int BUFFER_SIZE = 8192;
+	private static final int MAX_FRACTION_DIGITS = 17; //Same as the "#.#################" pattern used previously
+
+	private static final ThreadLocal<XmlResponseWriter> xmlWriters = new ThreadLocal<XmlResponseWriter>() {
+		@Override
+		protected XmlResponseWriter initialValue() {
+			return new XmlResponseWriter();
+		}
+	};
+	private static final ThreadLocal<JsonResponseWriter> jsonWriters = new ThreadLocal<JsonResponseWriter>() {
+		@Override
+		protected JsonResponseWriter initialValue() {
+			return new JsonResponseWriter();
+		}
+	};
+
+	private final byte[] buffer = new byte[BUFFER_SIZE];
+	private int position;
+	private OutputStream out;
+
+	//Scratch space for number formatting
+	private final StringBuilder numberChars = new StringBuilder(32);
+	private final byte[] digits = new byte[32];
+
+	/**
+	 * Returns this thread's writer for the given format ("json", otherwise XML), attached to the given stream.
+	 */
+	public static ResponseWriter get(String format, OutputStream out) {
+		ResponseWriter writer = "json".equals(format) ? jsonWriters.get() : xmlWriters.get();
+		writer.reset(out);
+		return writer;
+	}
+
+	protected void reset(OutputStream out) {
+		this.out = out;
+		this.position = 0;
+	}
+
+	public abstract String getContentType();
+
+	/** Reports an error that prevents a search response from being produced at all (e.g. failed initialization). */
+	public abstract void fatalError(String message) throws IOException;
+
+	public abstract void startSearch() throws IOException;
+
+	public abstract void error(String message) throws IOException;
+
+	/** @param lowerBound whether counting stopped early (see "maxtotal"), so that there are more matches than total */
+	public abstract void total(long total, boolean lowerBound) throws IOException;
+
+	public abstract void suggestion(String suggestion) throws IOException;
+
+	public abstract void pages(int current, int last) throws IOException;
+
+	/**
+	 * Writes a facet block, e.g. facets("clusters", "cluster", counts).  Entries with a null name are written as "null".
+	 */
+	public abstract void facets(String listName, String itemName, Map<String, Integer> counts) throws IOException;
+
+	public abstract void startResults() throws IOException;
+
+	/**
+	 * Writes one result.  title, conference and pageRankComponent are omitted when null.
+	 */
+	public abstract void result(String title, String conference, Double pageRankComponent, float relevance, String predicted, String cluster) throws IOException;
+
+	public abstract void endResults() throws IOException;
+
+	public abstract void cursor(String cursor) throws IOException;
+
+	/**
+	 * Writes the per-stage timings of the request, in milliseconds.
+	 */
+	public abstract void timings(StageTimer timer) throws IOException;
+
+	public abstract void endSearch() throws IOException;
+
+	/**
+	 * Starts the response of a batch, made of search responses started with {@link #startSearch(String)}.  A fatal
+	 * error may be written instead.
+	 */
+	public abstract void startBatch() throws IOException;
+
+	/** Starts the response of one search of a batch, tagged with its id */
+	public abstract void startSearch(String id) throws IOException;
+
+	public abstract void endBatch() throws IOException;
+
+	/**
+	 * Starts the response of the Autocomplete servlet, a list of title completions.  A fatal error may be written
+	 * instead.
+	 */
+	public abstract void startCompletions() throws IOException;
+
+	public abstract void completion(String title) throws IOException;
+
+	public abstract void endCompletions() throws IOException;
+
+	/**
+	 * Flushes any buffered output and detaches the writer from the stream.
+	 */
+	public void finish() throws IOException {
+		flushBuffer();
+		out.flush();
+		out = null;
+	}
+
+	private void flushBuffer() throws IOException {
+		if (position > 0)
+		{
+			out.write(buffer, 0, position);
+			position = 0;
+		}
+	}
+
+	protected final void writeByte(int b) throws IOException {
+		if (position == BUFFER_SIZE)
+		{
+			flushBuffer();
+		}
+		buffer[position++] = (byte) b;
+	}
+
+	/**
+	 * Writes a string that is known to be ASCII and needs no escaping (markup, field names).
+	 */
+	protected final void writeAscii(String s) throws IOException {
+		for (int i = 0; i < s.length(); i++)
+		{
+			writeByte(s.charAt(i));
+		}
+	}
+
+	protected final void writeCodePoint(int cp) throws IOException {
+		if (cp < 0x80)
+		{
+			writeByte(cp);
+		}
+		else if (cp < 0x800)
+		{
+			writeByte(0xC0 | (cp >> 6));
+			writeByte(0x80 | (cp & 0x3F));
+		}
+		else if (cp < 0x10000)
+		{
+			writeByte(0xE0 | (cp >> 12));
+			writeByte(0x80 | ((cp >> 6) & 0x3F));
+			writeByte(0x80 | (cp & 0x3F));
+		}
+		else
+		{
+			writeByte(0xF0 | (cp >> 18));
+			writeByte(0x80 | ((cp >> 12) & 0x3F));
+			writeByte(0x80 | ((cp >> 6) & 0x3F));
+			writeByte(0x80 | (cp & 0x3F));
+		}
+	}
+
+	/**
+	 * Writes s as UTF-8, passing each code point through {@link #writeEscaped(int)}.
+	 * Unpaired surrogates are dropped.
+	 */
+	protected final void writeText(String s) throws IOException {
+		int length = s.length();
+		for (int i = 0; i < length; i++)
+		{
+			char c = s.charAt(i);
+			if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1)))
+			{
+				writeEscaped(Character.toCodePoint(c, s.charAt(i + 1)));
+				i++;
+			}
+			else if (!Character.isSurrogate(c))
+			{
+				writeEscaped(c);
+			}
+		}
+	}
+
+	/**
+	 * Writes one code point with the format's escaping rules applied.
+	 */
+	protected abstract void writeEscaped(int cp) throws IOException;
+
+	protected final void writeLong(long value) throws IOException {
+		if (value < 0)
+		{
+			writeByte('-');
+			if (value == Long.MIN_VALUE)
+			{
+				writeAscii("9223372036854775808");
+				return;
+			}
+			value = -value;
+		}
+		int count = 0;
+		do {
+			digits[count++] = (byte) ('0' + (value % 10));
+			value /= 10;
+		} while (value != 0);
+		while (count > 0)
+		{
+			writeByte(digits[--count]);
+		}
+	}
+
+	/**
+	 * Writes a double the way new DecimalFormat("#.#################") formats it: plain notation, no grouping,
+	 * at most 17 fraction digits rounded half-even, and trailing zeros dropped.  The digits come from the
+	 * shortest representation of the double (as with Double.toString), which is what DecimalFormat rounds as well.
+	 */
+	protected final void writeDecimal(double value) throws IOException {
+		if (Double.isNaN(value))
+		{
+			writeAscii("NaN");
+			return;
+		}
+		boolean negative = value < 0 || (value == 0 && 1 / value < 0);
+		if (Double.isInfinite(value))
+		{
+			if (negative)
+			{
+				writeByte('-');
+			}
+			writeCodePoint('\u221E');
+			return;
+		}
+
+		numberChars.setLength(0);
+		numberChars.append(Math.abs(value));
+
+		//Collect the significant digits and the position of the decimal point relative to them
+		int count = 0;
+		int decimalAt = 0;
+		boolean seenPoint = false;
+		int i = 0;
+		for (; i < numberChars.length(); i++)
+		{
+			char c = numberChars.charAt(i);
+			if (c == '.')
+			{
+				seenPoint = true;
+			}
+			else if (c == 'E')
+			{
+				break;
+			}
+			else if (count == 0 && c == '0')
+			{
+				if (seenPoint)
+				{
+					decimalAt--;
+				}
+			}
+			else
+			{
+				digits[count++] = (byte) c;
+				if (!seenPoint)
+				{
+					decimalAt++;
+				}
+			}
+		}
+		if (i < numberChars.length())
+		{
+			int exponent = 0;
+			boolean negativeExponent = false;
+			for (i++; i < numberChars.length(); i++)
+			{
+				char c = numberChars.charAt(i);
+				if (c == '-')
+				{
+					negativeExponent = true;
+				}
+				else
+				{
+					exponent = exponent * 10 + (c - '0');
+				}
+			}
+			decimalAt += negativeExponent ? -exponent : exponent;
+		}
+		while (count > 0 && digits[count - 1] == '0')
+		{
+			count--;
+		}
+
+		//Round to MAX_FRACTION_DIGITS fraction digits
+		int keep = decimalAt + MAX_FRACTION_DIGITS;
+		if (keep < 0)
+		{
+			count = 0;
+		}
+		else if (keep < count)
+		{
+			boolean roundUp;
+			if (digits[keep] > '5')
+			{
+				roundUp = true;
+			}
+			else if (digits[keep] < '5')
+			{
+				roundUp = false;
+			}
+			else if (keep < count - 1)
+			{
+				roundUp = true; //More non-zero digits follow the 5
+			}
+			else
+			{
+				//The shortest digits sit exactly on the tie; decide from the exact binary value.
+				//A tie on the first significant digit is always rounded down, as DecimalFormat does
+				if (keep == 0)
+				{
+					roundUp = false;
+				}
+				else
+				{
+					BigDecimal tie = BigDecimal.valueOf(Math.abs(value));
+					int cmp = new BigDecimal(Math.abs(value)).compareTo(tie);
+					roundUp = cmp > 0 || (cmp == 0 && (digits[keep - 1] - '0') % 2 != 0);
+				}
+			}
+			count = keep;
+			if (roundUp)
+			{
+				int j = count - 1;
+				while (j >= 0 && digits[j] == '9')
+				{
+					j--;
+				}
+				if (j < 0)
+				{
+					digits[0] = '1';
+					count = 1;
+					decimalAt++;
+				}
+				else
+				{
+					digits[j]++;
+					count = j + 1;
+				}
+			}
+			while (count > 0 && digits[count - 1] == '0')
+			{
+				count--;
+			}
+		}
+
+		if (negative)
+		{
+			writeByte('-');
+		}
+		if (count == 0)
+		{
+			writeByte('0');
+			return;
+		}
+		if (decimalAt <= 0)
+		{
+			writeByte('0');
+			writeByte('.');
+			for (int z = decimalAt; z < 0; z++)
+			{
+				writeByte('0');
+			}
+			for (int d = 0; d < count; d++)
+			{
+				writeByte(digits[d]);
+			}
+			return;
+		}
+		for (int d = 0; d < decimalAt; d++)
+		{
+			writeByte(d < count ? digits[d] : '0');
+		}
+		if (count > decimalAt)
+		{
+			writeByte('.');
+			for (int d = decimalAt; d < count; d++)
+			{
+				writeByte(digits[d]);
+			}
+		}
+	}
+}
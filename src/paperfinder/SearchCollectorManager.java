@@ -0,0 +1,116 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.lucene.search.Collector;
+import org.apache.lucene.search.CollectorManager;
+import org.apache.lucene.search.FieldDoc;
+import org.apache.lucene.search.FilterCollector;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TimeLimitingCollector;
+import org.apache.lucene.search.TopDocs;
+import org.apache.lucene.search.TopFieldCollector;
+import org.apache.lucene.search.TopFieldDocs;
+
+/**
+ * Collects a {@link SearchResult}: the top hits in rank order along with facet counts over all matches (or up to a
+ * limit, see FacetCollector), within a time budget.
+ *
+ * An IndexSearcher without an executor uses a single collector for the whole index.  One with an executor (as for
+ * batches) collects each slice of segments on its own thread with its own collectors, all sharing one Weight, and
+ * the slices are merged: top hits with TopDocs.merge, which breaks ties by slice and so in doc id order, as a
+ * single collector would; counts by adding them up.  Each slice counts up to the limit, so a limited total may
+ * exceed it, and is a lower bound if any slice stopped counting.
+ */
+class SearchCollectorManager implements CollectorManager<SearchCollectorManager.Slice, SearchResult> {
+	private final Sort sort;
+	private final int numHits;
+	private final FieldDoc after;
+	private final boolean earlyTermination;
+	private final int totalLimit;
+	private final long timeoutMillis;
+
+	/**
+	 * @param after the hit to resume after, or null
+	 * @param earlyTermination whether to stop sorting the hits of rank ordered segments early, see RankTerminatingCollector
+	 * @param totalLimit the most matches to count, Integer.MAX_VALUE for all
+	 */
+	SearchCollectorManager(Sort sort, int numHits, FieldDoc after, boolean earlyTermination, int totalLimit, long timeoutMillis) {
+		this.sort = sort;
+		this.numHits = numHits;
+		this.after = after;
+		this.earlyTermination = earlyTermination;
+		this.totalLimit = totalLimit;
+		this.timeoutMillis = timeoutMillis;
+	}
+
+	/**
+	 * The collectors of one slice.
+	 */
+	static class Slice extends FilterCollector {
+		final TopFieldCollector top;
+		final FacetCollector facets;
+
+		Slice(Collector in, TopFieldCollector top, FacetCollector facets) {
+			super(in);
+			this.top = top;
+			this.facets = facets;
+		}
+	}
+
+	@Override
+	public Slice newCollector() throws IOException {
+		TopFieldCollector top = TopFieldCollector.create(sort, numHits, after, true, true, true);
+		Collector ranked = top;
+		if (earlyTermination)
+		{
+			//In segments stored in rank order, sorting stops once the top hits are known; facets still count every
+			//match up to the limit, and a segment is left once both are done
+			double ceiling = (after == null) ? Double.POSITIVE_INFINITY : (Double) after.fields[0];
+			ranked = new RankTerminatingCollector(top, numHits, ceiling);
+		}
+		FacetCollector facets = new FacetCollector(totalLimit);
+		Collector collector = new TimeLimitingCollector(MultiCollector.wrap(ranked, facets),
+				TimeLimitingCollector.getGlobalCounter(), timeoutMillis);
+		return new Slice(collector, top, facets);
+	}
+
+	@Override
+	public SearchResult reduce(Collection<Slice> slices) throws IOException {
+		if (slices.size() == 1)
+		{
+			Slice slice = slices.iterator().next();
+			//The total comes from the facet counts, since the top hits collector may have stopped early
+			return new SearchResult(slice.top.topDocs().scoreDocs, slice.facets.getTotalHits(),
+					slice.facets.getClusterCounts(), slice.facets.getConferenceCounts(), totalLimit, slice.facets.isTruncated());
+		}
+		TopFieldDocs[] topDocs = new TopFieldDocs[slices.size()];
+		int totalHits = 0;
+		boolean truncated = false;
+		Map<String, Integer> clusterCounts = new HashMap<String, Integer>();
+		Map<String, Integer> conferenceCounts = new HashMap<String, Integer>();
+		int i = 0;
+		for (Slice slice : slices)
+		{
+			topDocs[i++] = slice.top.topDocs();
+			totalHits += slice.facets.getTotalHits();
+			truncated |= slice.facets.isTruncated();
+			add(clusterCounts, slice.facets.getClusterCounts());
+			add(conferenceCounts, slice.facets.getConferenceCounts());
+		}
+		return new SearchResult(TopDocs.merge(sort, numHits, topDocs).scoreDocs, totalHits, clusterCounts, conferenceCounts,
+				totalLimit, truncated);
+	}
+
+	private static void add(Map<String, Integer> counts, Map<String, Integer> more) {
+		for (Map.Entry<String, Integer> entry : more.entrySet())
+		{
+			Integer count = counts.get(entry.getKey());
+			counts.put(entry.getKey(), (count == null) ? entry.getValue() : count + entry.getValue());
+		}
+	}
+}
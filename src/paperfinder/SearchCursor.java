@@ -0,0 +1,44 @@
+package paperfinder;
+
+import org.apache.lucene.search.FieldDoc;
+
+/**
+ * Opaque cursor tokens for deep paging with searchAfter.
+ *
+ * A token records the sort values of the last hit of a page (pageRankComponent, score) and its doc id,
+ * which is all that is needed to resume collection right after it.  Doc ids are only used to break
+ * ties, so a token stays usable (if slightly approximate on ties) after the index is reopened.
+ */
+class SearchCursor {
+	private SearchCursor() {
+	}
+
+	public static String encode(FieldDoc last)
+	{
+		double pageRankComponent = (Double) last.fields[0];
+		float score = (Float) last.fields[1];
+		return Long.toHexString(Double.doubleToLongBits(pageRankComponent))
+				+ "." + Integer.toHexString(Float.floatToIntBits(score))
+				+ "." + Integer.toHexString(last.doc);
+	}
+
+	/**
+	 * @return the FieldDoc to search after, or null if the token is malformed
+	 */
+	public static FieldDoc decode(String token)
+	{
+		String[] parts = token.split("\\.");
+		if (parts.length != 3)
+		{
+			return null;
+		}
+		try {
+			double pageRankComponent = Double.longBitsToDouble(Long.parseUnsignedLong(parts[0], 16));
+			float score = Float.intBitsToFloat(Integer.parseUnsignedInt(parts[1], 16));
+			int doc = Integer.parseUnsignedInt(parts[2], 16);
+			return new FieldDoc(doc, score, new Object[] { pageRankComponent, score });
+		} catch (NumberFormatException e) {
+			return null;
+		}
+	}
+}
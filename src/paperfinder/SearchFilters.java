@@ -0,0 +1,159 @@
+package paperfinder;
+
+import java.util.Map;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.document.IntPoint;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.BooleanClause;
+import org.apache.lucene.search.BooleanQuery;
+import org.apache.lucene.search.MatchNoDocsQuery;
+import org.apache.lucene.search.PhraseQuery;
+import org.apache.lucene.search.PointRangeQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.apache.lucene.util.QueryBuilder;
+
+/**
+ * The restrictions a search may carry besides its query: to one cluster ("cluster"), one conference ("conference")
+ * and a range of years ("year": "2005", "2005-2010", or open ended "2005-" or "-2010").  Papers without a year never
+ * match a year range.
+ *
+ * They are added to the query as FILTER clauses, which match without scoring, so the relevance of the hits is that
+ * of the query alone.  Each filter is a plain query that equals any other for the same value, which lets the query
+ * cache of the searcher keep its doc ids per segment (see FilterCachingPolicy): a drill-down then intersects the
+ * query with a cached bit set instead of reading the postings of the filter again.
+ */
+class SearchFilters {
+	static final SearchFilters NONE = new SearchFilters(null, null, Integer.MIN_VALUE, Integer.MAX_VALUE);
+
+	final String cluster; //null for any
+	final String conference; //null for any
+	final int fromYear; //Inclusive, Integer.MIN_VALUE for no lower bound
+	final int toYear; //Inclusive, Integer.MAX_VALUE for no upper bound
+
+	SearchFilters(String cluster, String conference, int fromYear, int toYear) {
+		this.cluster = cluster;
+		this.conference = conference;
+		this.fromYear = fromYear;
+		this.toYear = toYear;
+	}
+
+	/**
+	 * Reads the filters from the arguments of a search.  Empty values mean no restriction.
+	 *
+	 * @throws NumberFormatException if the year range is malformed
+	 */
+	static SearchFilters parse(Map<String, String> parameters) {
+		String cluster = emptyToNull(parameters.get("cluster"));
+		String conference = emptyToNull(parameters.get("conference"));
+		String year = emptyToNull(parameters.get("year"));
+		int fromYear = Integer.MIN_VALUE;
+		int toYear = Integer.MAX_VALUE;
+		if (year != null)
+		{
+			int dash = year.indexOf('-', 1); //Not a leading minus sign of a single year
+			if (year.startsWith("-"))
+			{
+				dash = 0;
+			}
+			if (dash < 0)
+			{
+				fromYear = toYear = Integer.parseInt(year.trim());
+			}
+			else
+			{
+				String from = year.substring(0, dash).trim();
+				String to = year.substring(dash + 1).trim();
+				if (from.isEmpty() && to.isEmpty())
+				{
+					throw new NumberFormatException(year);
+				}
+				fromYear = from.isEmpty() ? Integer.MIN_VALUE : Integer.parseInt(from);
+				toYear = to.isEmpty() ? Integer.MAX_VALUE : Integer.parseInt(to);
+			}
+		}
+		if (cluster == null && conference == null && year == null)
+		{
+			return NONE;
+		}
+		return new SearchFilters(cluster, conference, fromYear, toYear);
+	}
+
+	private static String emptyToNull(String value) {
+		return (value == null || value.isEmpty()) ? null : value;
+	}
+
+	boolean isEmpty() {
+		return cluster == null && conference == null && !hasYears();
+	}
+
+	private boolean hasYears() {
+		return fromYear != Integer.MIN_VALUE || toYear != Integer.MAX_VALUE;
+	}
+
+	/**
+	 * @return the query restricted to the filtered papers (the query itself if there are no filters)
+	 */
+	Query apply(Query query, Analyzer analyzer) {
+		if (isEmpty())
+		{
+			return query;
+		}
+		BooleanQuery.Builder builder = new BooleanQuery.Builder();
+		builder.add(query, BooleanClause.Occur.MUST);
+		if (cluster != null)
+		{
+			builder.add(new TermQuery(new Term("cluster", cluster)), BooleanClause.Occur.FILTER);
+		}
+		if (conference != null)
+		{
+			//The conference is indexed as text, so its value is analyzed the same way
+			Query filter = new QueryBuilder(analyzer).createPhraseQuery("conference", conference);
+			builder.add((filter == null) ? new MatchNoDocsQuery() : filter, BooleanClause.Occur.FILTER);
+		}
+		if (hasYears())
+		{
+			builder.add(IntPoint.newRangeQuery("year", fromYear, toYear), BooleanClause.Occur.FILTER);
+		}
+		return builder.build();
+	}
+
+	/**
+	 * @return whether a query is one of the filters built by apply, whatever its value
+	 */
+	static boolean isFilter(Query query) {
+		if (query instanceof TermQuery)
+		{
+			String field = ((TermQuery) query).getTerm().field();
+			return field.equals("cluster") || field.equals("conference");
+		}
+		if (query instanceof PhraseQuery)
+		{
+			Term[] terms = ((PhraseQuery) query).getTerms();
+			return terms.length > 0 && terms[0].field().equals("conference");
+		}
+		return query instanceof PointRangeQuery && ((PointRangeQuery) query).getField().equals("year");
+	}
+
+	/**
+	 * @return a string that identifies the filters, for the result cache (see fromKey)
+	 */
+	String key() {
+		if (isEmpty())
+		{
+			return "";
+		}
+		return Integer.toString(fromYear) + '\u0000' + toYear + '\u0000' + ((conference == null) ? "" : conference) + '\u0000'
+				+ ((cluster == null) ? "" : cluster);
+	}
+
+	static SearchFilters fromKey(String key) {
+		if (key.isEmpty())
+		{
+			return NONE;
+		}
+		String[] parts = key.split("\u0000", 4);
+		return new SearchFilters(emptyToNull(parts[3]), emptyToNull(parts[2]), Integer.parseInt(parts[0]), Integer.parseInt(parts[1]));
+	}
+}
@@ -0,0 +1,213 @@
+package paperfinder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Request metrics of PaperFinder, served by its stats endpoint: a latency histogram of whole requests and one per
+ * stage of StageTimer, and counters of the outcomes.  Everything is recorded without locks, by the search threads.
+ *
+ * A stage histogram only counts the requests that went through that stage (e.g. "search" skips result cache hits,
+ * "spellcheck" only has queries without hits), so its percentiles are those of the stage when it does run.
+ *
+ * State that is not recorded per request (index, cache) is read when the stats are requested and passed in as
+ * {@link Group}s.
+ */
+class SearchMetrics {
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+	private static final String[] QUANTILE_NAMES = { "p50", "p90", "p99", "p999" }; //In the JSON output
+
+	final LatencyHistogram requestLatency = new LatencyHistogram();
+	private final LatencyHistogram[] stageLatency = new LatencyHistogram[StageTimer.Stage.values().length];
+
+	final AtomicLong requests = new AtomicLong(); //Searches answered, including errors and each search of a batch
+	final AtomicLong batches = new AtomicLong(); //Batch requests
+	final AtomicLong errors = new AtomicLong(); //Requests answered with an <error> (bad arguments, unparsable queries, timeouts)
+	final AtomicLong timeouts = new AtomicLong(); //Searches that ran out of their time budget
+	final AtomicLong rejected = new AtomicLong(); //Requests refused with a 503 because the search pool was full or they waited too long
+	final AtomicLong zeroResults = new AtomicLong(); //Queries without hits
+	final AtomicLong spellchecks = new AtomicLong(); //Spell checker runs (queries without hits, not answered from the cache)
+	final AtomicLong suggestions = new AtomicLong(); //Responses carrying a spelling suggestion
+	final AtomicLong slowQueries = new AtomicLong(); //Requests over the slow query threshold
+
+	SearchMetrics() {
+		for (int i = 0; i < stageLatency.length; i++)
+		{
+			stageLatency[i] = new LatencyHistogram();
+		}
+	}
+
+	/**
+	 * Records the latency of a finished request and of the stages it went through.
+	 */
+	void record(StageTimer timer) {
+		for (StageTimer.Stage stage : StageTimer.Stage.values())
+		{
+			long nanos = timer.getNanos(stage);
+			if (nanos > 0)
+			{
+				stageLatency[stage.ordinal()].record(nanos);
+			}
+		}
+		requestLatency.record(timer.getElapsedNanos());
+	}
+
+	/**
+	 * Named values read at the time of the request for the stats, e.g. of the open index.  Counters only ever
+	 * increase; gauges are current values.
+	 */
+	static class Group {
+		final String name;
+		final List<String> names = new ArrayList<String>();
+		final List<Long> values = new ArrayList<Long>();
+		final List<Boolean> counters = new ArrayList<Boolean>();
+
+		Group(String name) {
+			this.name = name;
+		}
+
+		Group gauge(String name, long value) {
+			return add(name, value, false);
+		}
+
+		Group counter(String name, long value) {
+			return add(name, value, true);
+		}
+
+		private Group add(String name, long value, boolean counter) {
+			names.add(name);
+			values.add(value);
+			counters.add(counter);
+			return this;
+		}
+	}
+
+	/**
+	 * Writes the metrics as one JSON object, latencies in milliseconds:
+	 * {"requests":n, ..., "latency":{"request":{"count":n,"mean":x,"p50":x,"p90":x,"p99":x,"p999":x,"max":x},
+	 *  "queue":{...}, ...}, "index":{...}, ...}
+	 */
+	String toJson(Group... groups) {
+		StringBuilder out = new StringBuilder(2048);
+		out.append('{');
+		jsonCounter(out, "requests", requests).append(',');
+		jsonCounter(out, "batches", batches).append(',');
+		jsonCounter(out, "errors", errors).append(',');
+		jsonCounter(out, "timeouts", timeouts).append(',');
+		jsonCounter(out, "rejected", rejected).append(',');
+		jsonCounter(out, "zeroResults", zeroResults).append(',');
+		jsonCounter(out, "spellchecks", spellchecks).append(',');
+		jsonCounter(out, "suggestions", suggestions).append(',');
+		jsonCounter(out, "slowQueries", slowQueries).append(',');
+
+		out.append("\"latency\":{");
+		jsonLatency(out, "request", requestLatency);
+		for (StageTimer.Stage stage : StageTimer.Stage.values())
+		{
+			out.append(',');
+			jsonLatency(out, stage.label, stageLatency[stage.ordinal()]);
+		}
+		out.append('}');
+
+		for (Group group : groups)
+		{
+			out.append(",\"").append(group.name).append("\":{");
+			for (int i = 0; i < group.names.size(); i++)
+			{
+				out.append((i == 0) ? "\"" : ",\"").append(group.names.get(i)).append("\":").append(group.values.get(i));
+			}
+			out.append('}');
+		}
+		return out.append("}\n").toString();
+	}
+
+	private static StringBuilder jsonCounter(StringBuilder out, String name, AtomicLong counter) {
+		return out.append('"').append(name).append("\":").append(counter.get());
+	}
+
+	private static void jsonLatency(StringBuilder out, String name, LatencyHistogram histogram) {
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		out.append('"').append(name).append("\":{\"count\":").append(snapshot.count);
+		out.append(",\"mean\":").append((snapshot.count == 0) ? 0.0 : histogram.getSum() / 1e6 / snapshot.count);
+		for (int q = 0; q < QUANTILES.length; q++)
+		{
+			out.append(",\"").append(QUANTILE_NAMES[q]).append("\":").append(snapshot.percentile(QUANTILES[q]) / 1e6);
+		}
+		out.append(",\"max\":").append(histogram.getMax() / 1e6).append('}');
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format, latencies in seconds as summaries: paperfinder_request_seconds
+	 * and paperfinder_stage_seconds{stage="..."}.  Names are prefixed with "paperfinder_" and converted to
+	 * snake_case, e.g. paperfinder_zero_results_total or paperfinder_index_documents.
+	 */
+	String toPrometheus(Group... groups) {
+		StringBuilder out = new StringBuilder(8192);
+		promCounter(out, "requests", requests);
+		promCounter(out, "batches", batches);
+		promCounter(out, "errors", errors);
+		promCounter(out, "timeouts", timeouts);
+		promCounter(out, "rejected", rejected);
+		promCounter(out, "zeroResults", zeroResults);
+		promCounter(out, "spellchecks", spellchecks);
+		promCounter(out, "suggestions", suggestions);
+		promCounter(out, "slowQueries", slowQueries);
+
+		out.append("# TYPE paperfinder_request_seconds summary\n");
+		promSummary(out, "paperfinder_request_seconds", "", requestLatency);
+		out.append("# TYPE paperfinder_stage_seconds summary\n");
+		for (StageTimer.Stage stage : StageTimer.Stage.values())
+		{
+			promSummary(out, "paperfinder_stage_seconds", "stage=\"" + stage.label + "\"", stageLatency[stage.ordinal()]);
+		}
+
+		for (Group group : groups)
+		{
+			for (int i = 0; i < group.names.size(); i++)
+			{
+				boolean counter = group.counters.get(i);
+				String name = "paperfinder_" + snakeCase(group.name) + "_" + snakeCase(group.names.get(i)) + (counter ? "_total" : "");
+				out.append("# TYPE ").append(name).append(counter ? " counter\n" : " gauge\n");
+				out.append(name).append(' ').append(group.values.get(i)).append('\n');
+			}
+		}
+		return out.toString();
+	}
+
+	private static void promCounter(StringBuilder out, String name, AtomicLong counter) {
+		String metric = "paperfinder_" + snakeCase(name) + "_total";
+		out.append("# TYPE ").append(metric).append(" counter\n");
+		out.append(metric).append(' ').append(counter.get()).append('\n');
+	}
+
+	private static void promSummary(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+		LatencyHistogram.Snapshot snapshot = histogram.snapshot();
+		String separator = labels.isEmpty() ? "" : ",";
+		for (double quantile : QUANTILES)
+		{
+			out.append(name).append('{').append(labels).append(separator).append("quantile=\"").append(quantile).append("\"} ");
+			out.append(snapshot.percentile(quantile) / 1e9).append('\n');
+		}
+		String braced = labels.isEmpty() ? "" : "{" + labels + "}";
+		out.append(name).append("_sum").append(braced).append(' ').append(histogram.getSum() / 1e9).append('\n');
+		out.append(name).append("_count").append(braced).append(' ').append(snapshot.count).append('\n');
+	}
+
+	private static String snakeCase(String name) {
+		StringBuilder snake = new StringBuilder(name.length() + 4);
+		for (int i = 0; i < name.length(); i++)
+		{
+			char c = name.charAt(i);
+			if (Character.isUpperCase(c))
+			{
+				snake.append('_').append(Character.toLowerCase(c));
+			}
+			else
+			{
+				snake.append(c);
+			}
+		}
+		return snake.toString();
+	}
+}
@@ -0,0 +1,52 @@
+package paperfinder;
+
+import java.util.Map;
+
+import org.apache.lucene.search.ScoreDoc;
+
+/**
+ * The outcome of collecting a query: the top hits (sorted, at most as deep as was asked for), the total number of
+ * matches and the facet counts over all matches, or over the first totalLimit of them if counting was limited.  Instances are immutable once built, so they can be shared through
+ * the {@link QueryResultCache}.
+ */
+class SearchResult {
+	final ScoreDoc[] scoreDocs;
+	final int totalHits;
+	final Map<String, Integer> clusterCounts;
+	final Map<String, Integer> conferenceCounts;
+	final int totalLimit; //Most matches counted, Integer.MAX_VALUE for all
+	final boolean truncated; //There were more matches than totalLimit: totalHits and the counts are lower bounds
+	volatile String suggestion; //Spelling suggestion for queries without hits, filled in lazily
+
+	SearchResult(ScoreDoc[] scoreDocs, int totalHits, Map<String, Integer> clusterCounts, Map<String, Integer> conferenceCounts,
+			int totalLimit, boolean truncated) {
+		this.scoreDocs = scoreDocs;
+		this.totalHits = totalHits;
+		this.clusterCounts = clusterCounts;
+		this.conferenceCounts = conferenceCounts;
+		this.totalLimit = totalLimit;
+		this.truncated = truncated;
+	}
+
+	/**
+	 * @return whether the top hits cover the first depth hits of the ranking
+	 */
+	boolean covers(int depth) {
+		return scoreDocs.length >= depth || (!truncated && scoreDocs.length == totalHits);
+	}
+
+	/**
+	 * @return whether the counts answer a search that counts up to limit matches: they must not stop short of it
+	 */
+	boolean counts(int limit) {
+		return !truncated || limit <= totalLimit;
+	}
+
+	/**
+	 * @return a rough estimate of the heap used by this result, for the cache's memory budget
+	 */
+	long ramBytesUsed() {
+		//FieldDoc with its Object[] of a boxed double and float, and the array slot; HashMap entries with small keys
+		return 64 + 96L * scoreDocs.length + 96L * (clusterCounts.size() + conferenceCounts.size());
+	}
+}
@@ -0,0 +1,47 @@
+package paperfinder;
+
+/**
+ * Records how long each stage of a search request took.  A timer belongs to a single request and is only used
+ * by one thread at a time, so it needs no synchronization.
+ */
+class StageTimer {
+	enum Stage {
+		QUEUE("queue"), //Waiting for a search thread
+		PARSE("parse"), //Parsing the query
+		SEARCH("search"), //Collecting top hits and facet counts
+		SPELLCHECK("spellcheck"), //Suggestions for queries without hits
+		FETCH("fetch"), //Loading stored fields of the page of results
+		CLASSIFY("classify"), //Live classification of results indexed without a prediction
+		WRITE("write"); //Serializing the response
+
+		final String label;
+
+		Stage(String label) {
+			this.label = label;
+		}
+	}
+
+	private final long created = System.nanoTime();
+	private final long[] nanos = new long[Stage.values().length];
+	private long mark = created;
+
+	/**
+	 * Attributes the time since the previous call (or since the timer was created) to the given stage.
+	 */
+	public void end(Stage stage) {
+		long now = System.nanoTime();
+		nanos[stage.ordinal()] += now - mark;
+		mark = now;
+	}
+
+	public long getNanos(Stage stage) {
+		return nanos[stage.ordinal()];
+	}
+
+	/**
+	 * @return nanoseconds since the request was received
+	 */
+	public long getElapsedNanos() {
+		return System.nanoTime() - created;
+	}
+}
@@ -0,0 +1,88 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.spell.DirectSpellChecker;
+import org.apache.lucene.search.spell.SuggestMode;
+import org.apache.lucene.search.spell.SuggestWord;
+import org.apache.lucene.search.spell.SuggestWordFrequencyComparator;
+
+/**
+ * Spelling suggestions for queries without hits, drawn from the terms of the "title" field of the open index.
+ *
+ * There is no separate dictionary to build: DirectSpellChecker intersects a Levenshtein automaton with the index's
+ * own terms dictionary, so suggestions are always words that actually occur in titles, and a reopened index brings
+ * its new words with it.  Each word of the query is corrected on its own (words found in the index, operators and
+ * clauses on other fields, such as cluster:..., are kept as typed), and among the close matches of a word the most
+ * frequent one wins.  Words one edit away are looked for first, as that automaton is several times cheaper to run
+ * than the two edit one, which is only tried when nothing closer turns up.
+ *
+ * Thread safe.
+ */
+class TitleSpellChecker {
+	private static final String FIELD = "title";
+
+	//A word, with the field it is searched in if it has one (field:word)
+	private static final Pattern WORD = Pattern.compile("(?:(\\w+):)?([\\p{L}\\p{N}]+)");
+
+	private final DirectSpellChecker oneEdit = new DirectSpellChecker();
+	private final DirectSpellChecker twoEdits = new DirectSpellChecker();
+
+	TitleSpellChecker()
+	{
+		oneEdit.setMaxEdits(1);
+		oneEdit.setComparator(new SuggestWordFrequencyComparator());
+		twoEdits.setMaxEdits(2);
+		twoEdits.setComparator(new SuggestWordFrequencyComparator());
+	}
+
+	/**
+	 * @return the query with each misspelled title word replaced by its best correction, or "" if nothing was corrected
+	 */
+	public String suggest(IndexReader reader, String query) throws IOException
+	{
+		StringBuilder suggestion = new StringBuilder(query.length() + 8);
+		boolean corrected = false;
+		int copied = 0;
+		Matcher m = WORD.matcher(query);
+		while (m.find())
+		{
+			String field = m.group(1);
+			String word = m.group(2);
+			if ((field != null && !field.equals(FIELD)) || isOperator(word))
+			{
+				continue;
+			}
+			Term term = new Term(FIELD, word.toLowerCase());
+			if (reader.docFreq(term) > 0)
+			{
+				continue;
+			}
+			SuggestWord[] words = oneEdit.suggestSimilar(term, 1, reader, SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX);
+			if (words.length == 0)
+			{
+				words = twoEdits.suggestSimilar(term, 1, reader, SuggestMode.SUGGEST_WHEN_NOT_IN_INDEX);
+			}
+			if (words.length > 0)
+			{
+				suggestion.append(query, copied, m.start(2)).append(words[0].string);
+				copied = m.end(2);
+				corrected = true;
+			}
+		}
+		if (!corrected)
+		{
+			return "";
+		}
+		return suggestion.append(query, copied, query.length()).toString().trim();
+	}
+
+	private static boolean isOperator(String word)
+	{
+		return word.equals("AND") || word.equals("OR") || word.equals("NOT") || word.equals("TO");
+	}
+}
@@ -0,0 +1,198 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.CharArraySet;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.document.Document;
+import org.apache.lucene.index.DocValues;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.index.LeafReader;
+import org.apache.lucene.index.LeafReaderContext;
+import org.apache.lucene.index.NumericDocValues;
+import org.apache.lucene.search.suggest.InputIterator;
+import org.apache.lucene.search.suggest.Lookup;
+import org.apache.lucene.search.suggest.analyzing.AnalyzingSuggester;
+import org.apache.lucene.store.RAMDirectory;
+import org.apache.lucene.util.Bits;
+import org.apache.lucene.util.BytesRef;
+
+/**
+ * Title completions for search-as-you-type, most influential papers first.
+ *
+ * LuceneIndexer builds the suggester from the titles in the index, each weighted by its pageRankComponent, and
+ * stores it next to the index as a single file (see {@link #FILE_NAME}).  It is an FST from the analyzed titles to
+ * their weight and original text, a few MB for the whole corpus, so loading it is just reading that file back, and a
+ * lookup walks the FST from the analyzed prefix and returns the top weighted completions.
+ *
+ * Titles are analyzed like the "title" field but keep their stop words, so that "the " or "on the" still complete.
+ * Lookups are thread safe.
+ */
+public class TitleSuggester {
+	public static final String FILE_NAME = "titles.suggest";
+
+	//Weights must be non-negative ints; pageRankComponent (at most 1) is scaled to that range
+	private static final double WEIGHT_SCALE = Integer.MAX_VALUE;
+
+	private final AnalyzingSuggester suggester;
+
+	private TitleSuggester(AnalyzingSuggester suggester)
+	{
+		this.suggester = suggester;
+	}
+
+	private static AnalyzingSuggester newSuggester()
+	{
+		Analyzer analyzer = new StandardAnalyzer(CharArraySet.EMPTY_SET);
+		//The directory only holds the temporary files of the sort while building, and the input is small
+		return new AnalyzingSuggester(new RAMDirectory(), "titles", analyzer);
+	}
+
+	/**
+	 * Builds the suggester from the stored titles and pageRankComponent doc values of the live documents, and writes
+	 * it to file (through a temporary file, so a reader never sees a partial one).  A title that occurs several
+	 * times keeps its highest weight.
+	 *
+	 * @return the number of distinct titles
+	 */
+	public static int build(IndexReader reader, Path file) throws IOException
+	{
+		Map<String, Long> weights = new HashMap<String, Long>();
+		for (LeafReaderContext context : reader.leaves())
+		{
+			LeafReader leaf = context.reader();
+			Bits live = leaf.getLiveDocs();
+			NumericDocValues pageRankComponent = DocValues.getNumeric(leaf, "pageRankComponent");
+			for (int doc = 0; doc < leaf.maxDoc(); doc++)
+			{
+				if (live != null && !live.get(doc))
+				{
+					continue;
+				}
+				Document stored = leaf.document(doc);
+				String title = stored.get("title");
+				if (title == null || title.isEmpty())
+				{
+					continue;
+				}
+				//Papers without a rank have no value, which reads as 0
+				double component = Double.longBitsToDouble(pageRankComponent.get(doc));
+				long weight = Math.max(0, Math.min(Integer.MAX_VALUE, Math.round(component * WEIGHT_SCALE)));
+				Long previous = weights.get(title);
+				if (previous == null || previous < weight)
+				{
+					weights.put(title, weight);
+				}
+			}
+		}
+
+		AnalyzingSuggester suggester = newSuggester();
+		suggester.build(new TitleIterator(weights));
+		Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+		try (OutputStream out = Files.newOutputStream(temp)) {
+			suggester.store(out);
+		}
+		Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		return weights.size();
+	}
+
+	public static TitleSuggester load(Path file) throws IOException
+	{
+		AnalyzingSuggester suggester = newSuggester();
+		try (InputStream in = Files.newInputStream(file)) {
+			suggester.load(in);
+		}
+		return new TitleSuggester(suggester);
+	}
+
+	/**
+	 * @return up to count titles starting with the given prefix (compared after analysis), highest weight first
+	 */
+	public List<String> complete(String prefix, int count) throws IOException
+	{
+		List<Lookup.LookupResult> results = suggester.lookup(prefix, false, count);
+		List<String> titles = new ArrayList<String>(results.size());
+		for (Lookup.LookupResult result : results)
+		{
+			titles.add(result.key.toString());
+		}
+		return titles;
+	}
+
+	public long getCount()
+	{
+		return suggester.getCount();
+	}
+
+	public long ramBytesUsed()
+	{
+		return suggester.ramBytesUsed();
+	}
+
+	/** Feeds the distinct titles and their weights to the suggester */
+	private static class TitleIterator implements InputIterator
+	{
+		private final Iterator<Map.Entry<String, Long>> entries;
+		private long weight;
+
+		TitleIterator(Map<String, Long> weights)
+		{
+			this.entries = weights.entrySet().iterator();
+		}
+
+		@Override
+		public BytesRef next()
+		{
+			if (!entries.hasNext())
+			{
+				return null;
+			}
+			Map.Entry<String, Long> entry = entries.next();
+			weight = entry.getValue();
+			return new BytesRef(entry.getKey().getBytes(StandardCharsets.UTF_8));
+		}
+
+		@Override
+		public long weight()
+		{
+			return weight;
+		}
+
+		@Override
+		public BytesRef payload()
+		{
+			return null;
+		}
+
+		@Override
+		public boolean hasPayloads()
+		{
+			return false;
+		}
+
+		@Override
+		public Set<BytesRef> contexts()
+		{
+			return null;
+		}
+
+		@Override
+		public boolean hasContexts()
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,85 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.servlet.GenericServlet;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.index.IndexReader;
+import org.apache.lucene.queryparser.classic.ParseException;
+import org.apache.lucene.search.IndexSearcher;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.MultiCollector;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.QueryCache;
+import org.apache.lucene.search.QueryCachingPolicy;
+import org.apache.lucene.search.SearcherFactory;
+import org.apache.lucene.search.Sort;
+import org.apache.lucene.search.TopFieldCollector;
+
+/**
+ * Creates the searchers for the SearcherManager, and warms each one before it is swapped in.
+ *
+ * Warming runs on the thread that opened the reader (init, or the background refresh), never on a request thread.
+ * It sorts and facets over the whole index so the doc values of new segments are loaded, then replays the most
+ * recently used queries from the result cache, so the first requests after a reopen do not pay for cold segments.
+ * Replaying their filters also fills the filter cache for new segments.  Each opened searcher is logged through the servlet.
+ */
+class WarmingSearcherFactory extends SearcherFactory {
+	private final GenericServlet servlet;
+	private final Analyzer analyzer;
+	private final Sort sort;
+	private final QueryResultCache resultCache; //Source of popular queries; may be null
+	private final int warmQueries;
+	private final QueryCache filterCache; //May be null, to cache nothing
+	private final QueryCachingPolicy filterPolicy;
+	private final AtomicLong generation = new AtomicLong();
+
+	WarmingSearcherFactory(GenericServlet servlet, Analyzer analyzer, Sort sort, QueryResultCache resultCache, int warmQueries,
+			QueryCache filterCache, QueryCachingPolicy filterPolicy) {
+		this.servlet = servlet;
+		this.analyzer = analyzer;
+		this.sort = sort;
+		this.resultCache = resultCache;
+		this.warmQueries = warmQueries;
+		this.filterCache = filterCache;
+		this.filterPolicy = filterPolicy;
+	}
+
+	@Override
+	public IndexSearcher newSearcher(IndexReader reader, IndexReader previousReader) throws IOException {
+		long start = System.nanoTime();
+		PaperSearcher searcher = new PaperSearcher(reader, generation.incrementAndGet());
+		searcher.setQueryCache(filterCache);
+		searcher.setQueryCachingPolicy(filterPolicy);
+
+		warm(searcher, new MatchAllDocsQuery());
+
+		int replayed = 0;
+		if (resultCache != null && warmQueries > 0)
+		{
+			List<String> keys = resultCache.recentKeys(warmQueries);
+			for (String key : keys)
+			{
+				try {
+					warm(searcher, PaperFinder.parseQuery(analyzer, QueryResultCache.queryOf(key), QueryResultCache.filtersOf(key)));
+					replayed++;
+				} catch (ParseException e) {
+					//Only queries that parsed before are cached, so this cannot happen; skip it regardless
+				}
+			}
+		}
+
+		servlet.log("Opened index generation " + searcher.generation + " (" + reader.maxDoc() + " documents, "
+				+ searcher.citations.edgeCount() + " citations), warmed with " + replayed + " queries in "
+				+ (System.nanoTime() - start) / 1000000 + "ms");
+		return searcher;
+	}
+
+	private void warm(IndexSearcher searcher, Query query) throws IOException {
+		TopFieldCollector topCollector = TopFieldCollector.create(sort, 10, true, true, true);
+		searcher.search(query, MultiCollector.wrap(topCollector, new FacetCollector()));
+	}
+}
@@ -0,0 +1,282 @@
+package paperfinder;
+
+import java.io.IOException;
+import java.util.Map;
+
+/**
+ * Writes the XML search response.  For well-formed responses the output is byte-for-byte what the PrintWriter based
+ * implementation produced: same elements and same line breaks (the platform line separator, as println used).
+ * Titles are escaped with the rules of StringEscapeUtils.escapeXml10, as before; other text used to be written raw,
+ * so it only gets the escaping needed to keep the document well-formed (&amp;, &lt;, &gt; and invalid characters).
+ */
+class XmlResponseWriter extends ResponseWriter {
+	private static final String NEWLINE = System.lineSeparator();
+
+	private boolean escapeQuotes; //Whether writeEscaped also escapes " and '
+
+	@Override
+	public String getContentType() {
+		return "text/xml;charset=UTF-8";
+	}
+
+	private void declaration() throws IOException {
+		//Results are UTF-8 formatted XML
+		writeAscii("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		writeAscii(NEWLINE);
+	}
+
+	private void element(String name, String text) throws IOException {
+		element(name, text, false);
+	}
+
+	private void element(String name, String text, boolean escapeQuotes) throws IOException {
+		writeByte('<');
+		writeAscii(name);
+		writeByte('>');
+		this.escapeQuotes = escapeQuotes;
+		writeText(String.valueOf(text));
+		this.escapeQuotes = false;
+		writeAscii("</");
+		writeAscii(name);
+		writeByte('>');
+	}
+
+	@Override
+	public void fatalError(String message) throws IOException {
+		declaration();
+		element("error", message);
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void startSearch() throws IOException {
+		declaration();
+		writeAscii("<search>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void error(String message) throws IOException {
+		element("error", message);
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void total(long total, boolean lowerBound) throws IOException {
+		writeAscii(lowerBound ? "<total lowerbound=\"true\">" : "<total>");
+		writeLong(total);
+		writeAscii("</total>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void suggestion(String suggestion) throws IOException {
+		writeAscii("<suggestion>");
+		writeAscii(NEWLINE);
+		writeText(suggestion);
+		writeAscii(NEWLINE);
+		writeAscii("</suggestion>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void pages(int current, int last) throws IOException {
+		writeAscii("<pages><current>");
+		writeLong(current);
+		writeAscii("</current><last>");
+		writeLong(last);
+		writeAscii("</last></pages>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void facets(String listName, String itemName, Map<String, Integer> counts) throws IOException {
+		writeByte('<');
+		writeAscii(listName);
+		writeByte('>');
+		writeAscii(NEWLINE);
+		for (Map.Entry<String, Integer> entry : counts.entrySet())
+		{
+			writeByte('<');
+			writeAscii(itemName);
+			writeByte('>');
+			element("name", entry.getKey());
+			writeAscii("<size>");
+			writeLong(entry.getValue());
+			writeAscii("</size></");
+			writeAscii(itemName);
+			writeByte('>');
+			writeAscii(NEWLINE);
+		}
+		writeAscii("</");
+		writeAscii(listName);
+		writeByte('>');
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void startResults() throws IOException {
+		writeAscii("<results>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void result(String title, String conference, Double pageRankComponent, float relevance, String predicted, String cluster) throws IOException {
+		writeAscii("\t<result>");
+		writeAscii(NEWLINE);
+		if (title != null)
+		{
+			writeAscii("\t\t");
+			element("title", title, true);
+			writeAscii(NEWLINE);
+		}
+		if (conference != null)
+		{
+			writeAscii("\t\t");
+			element("conference", conference);
+			writeAscii(NEWLINE);
+		}
+		if (pageRankComponent != null)
+		{
+			writeAscii("\t\t<pagerankraw>");
+			writeDecimal(pageRankComponent);
+			writeAscii("</pagerankraw>");
+			writeAscii(NEWLINE);
+		}
+		writeAscii("\t\t<relevance>");
+		writeDecimal(relevance);
+		writeAscii("</relevance>");
+		writeAscii(NEWLINE);
+		writeAscii("\t\t");
+		element("predicted", predicted);
+		writeAscii(NEWLINE);
+		writeAscii("\t\t");
+		element("cluster", cluster);
+		writeAscii(NEWLINE);
+		writeAscii("\t</result>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void endResults() throws IOException {
+		writeAscii("</results>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void cursor(String cursor) throws IOException {
+		element("cursor", cursor);
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void timings(StageTimer timer) throws IOException {
+		writeAscii("<timings>");
+		for (StageTimer.Stage stage : StageTimer.Stage.values())
+		{
+			String name = stage.label;
+			writeByte('<');
+			writeAscii(name);
+			writeByte('>');
+			writeDecimal(timer.getNanos(stage) / 1e6);
+			writeAscii("</");
+			writeAscii(name);
+			writeByte('>');
+		}
+		writeAscii("<total>");
+		writeDecimal(timer.getElapsedNanos() / 1e6);
+		writeAscii("</total></timings>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void endSearch() throws IOException {
+		writeAscii("</search>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void startBatch() throws IOException {
+		declaration();
+		writeAscii("<batch>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void startSearch(String id) throws IOException {
+		writeAscii("<search id=\"");
+		escapeQuotes = true;
+		writeText(id);
+		escapeQuotes = false;
+		writeAscii("\">");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void endBatch() throws IOException {
+		writeAscii("</batch>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void startCompletions() throws IOException {
+		declaration();
+		writeAscii("<completions>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void completion(String title) throws IOException {
+		writeAscii("\t");
+		element("completion", title, true);
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	public void endCompletions() throws IOException {
+		writeAscii("</completions>");
+		writeAscii(NEWLINE);
+	}
+
+	@Override
+	protected void writeEscaped(int cp) throws IOException {
+		switch (cp) {
+		case '"':
+			writeAscii(escapeQuotes ? "&quot;" : "\"");
+			return;
+		case '&':
+			writeAscii("&amp;");
+			return;
+		case '<':
+			writeAscii("&lt;");
+			return;
+		case '>':
+			writeAscii("&gt;");
+			return;
+		case '\'':
+			writeAscii(escapeQuotes ? "&apos;" : "'");
+			return;
+		case '\t':
+		case '\n':
+		case '\r':
+			writeByte(cp);
+			return;
+		default:
+			break;
+		}
+		if (cp < 0x20 || cp == 0xFFFE || cp == 0xFFFF)
+		{
+			//Not allowed in XML 1.0: dropped
+			return;
+		}
+		if ((cp >= 0x7F && cp <= 0x84) || (cp >= 0x86 && cp <= 0x9F))
+		{
+			//Discouraged control characters: written as numeric entities
+			writeAscii("&#");
+			writeLong(cp);
+			writeByte(';');
+			return;
+		}
+		writeCodePoint(cp);
+	}
+}